@@ -1,52 +1,70 @@
 package bitspls.evacuation;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import repast.simphony.context.Context;
 import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.engine.schedule.ScheduledMethod;
-import repast.simphony.query.space.grid.GridCell;
-import repast.simphony.query.space.grid.GridCellNgh;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.space.grid.Grid;
 import repast.simphony.space.grid.GridPoint;
 import repast.simphony.util.ContextUtils;
-import repast.simphony.util.SimUtilities;
 import bitspls.evacuation.agents.DeadDoctor;
 import bitspls.evacuation.agents.Doctor;
 import bitspls.evacuation.agents.Doctor.DoctorMode;
-import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.agents.Human;
+import bitspls.evacuation.campus.CampusLink;
+import bitspls.evacuation.schedule.Steppable;
+import bitspls.evacuation.space.Floor;
 
 /**
  * Class to represent a door in the hospital environment
  * @author Bits Please
  */
-public class Door {
+public class Door implements Steppable {
     private ContinuousSpace<Object> space;
-    private Grid<Object> grid;
+    private Floor floor;
+    private Hospital hospital;
+    private int id;
     private int radius;
     private int overcrowding;
     private int blocked;
+    private int capacity;
+    private ExitQueue queue;
+    private int exitedCount;
+    private double totalWait;
+    private double maxWait;
     
     /**
 	 * Constructor for Door
 	 * @param space Space in which the door is located
-	 * @param grid Grid in which the door is located
+	 * @param floor Floor in which the door is located
+	 * @param hospital Shared state of the hospital environment
 	 * @param radius Radius of knowledge of the door
 	 * @param overcrowding Number of patients needed for a door to
 	 * be overcrowded
 	 * @param blocked Number of gas particles needed to determine
 	 * if a door is blocked
+	 * @param capacity Number of humans that can leave through
+	 * the door each tick
 	 */
-    public Door(ContinuousSpace<Object> space, Grid<Object> grid, int radius, int overcrowding, int blocked) {
+    public Door(ContinuousSpace<Object> space, Floor floor, Hospital hospital, int radius, int overcrowding, int blocked, int capacity) {
         this.space = space;
-        this.grid = grid;
+        this.floor = floor;
+        this.hospital = hospital;
         this.radius = radius;
         this.overcrowding = overcrowding;
         this.blocked = blocked;
+        this.capacity = capacity;
+        this.queue = new ExitQueue();
+        this.exitedCount = 0;
+        this.totalWait = 0;
+        this.maxWait = 0;
+    }
+    
+    public int getId() {
+        return this.id;
+    }
+    
+    void setId(int id) {
+        this.id = id;
     }
     
     public int getRadius() {
@@ -60,109 +78,135 @@ public class Door {
     public int getBlockedThreshold() {
         return this.blocked;
     }
+    
+    public int getCrowdedCells() {
+        return this.hospital.getDoorStatusBoard().getCrowdedCells(this);
+    }
+    
+    public int getGasPressure() {
+        return this.hospital.getDoorStatusBoard().getGasPressure(this);
+    }
+    
+    public int getCapacity() {
+        return this.capacity;
+    }
+    
+    public int getExitQueueLength() {
+        return this.queue.size();
+    }
+    
+    public int getExitedCount() {
+        return this.exitedCount;
+    }
+    
+    public double getAverageWait() {
+        return this.exitedCount == 0 ? 0 : this.totalWait / this.exitedCount;
+    }
+    
+    public double getMaxWait() {
+        return this.maxWait;
+    }
 
     /**
-     * Removes patients or doctors from the context every tick if there
-     * are patients or doctors trying to exit
+     * Lets the humans at the front of the exit queue leave, up to the
+     * door's capacity, every tick while anyone is queued
      */
-    @ScheduledMethod(start = 1, interval = 1)
-    public void allowPatientsOrDoctorsToExit() {
-        List<Patient> patients = findExitingPatients();
-        allowPatientsToExit(patients);
-        
-        List<Doctor> doctors = findExitingDoctors();
-        if(patients.size() == 0) {
-            allowDoctorsToExit(doctors);
+    @Override
+    public void step() {
+        allowPatientsOrDoctorsToExit();
+        if (this.queue.size() == 0) {
+            this.hospital.getScheduler().sleep(this);
         }
     }
     
     /**
-     * Attempt to find patients trying to exit
-     * @return The list of patients trying to exit
+     * Lets the humans at the front of the exit queue leave, up to the
+     * door's capacity
      */
-    private List<Patient> findExitingPatients() {
-        GridPoint pt = this.grid.getLocation(this);
-        GridCellNgh<Patient> nghCreator = new GridCellNgh<Patient>(this.grid, pt, Patient.class, 1, 1);
-        List<GridCell<Patient>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
+    public void allowPatientsOrDoctorsToExit() {
+        Context<Object> context = ContextUtils.getContext(this);
+        double ticks = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
         
-        List<Patient> patients = new ArrayList<Patient>();
-        for (GridCell<Patient> cell : gridCells) {
-            for (Patient p : cell.items()) {
-                patients.add(p);
+        int exited = 0;
+        while (exited < this.capacity && this.queue.size() > 0) {
+            Human human = this.queue.peek();
+            double joinTick = this.queue.peekJoinTick();
+            this.queue.remove();
+            human.setQueued(false);
+            
+            if (canExit(human)) {
+                exit(context, human);
+                recordWait(ticks - joinTick);
+                exited++;
+            } else {
+                this.hospital.getScheduler().wake((Steppable) human);
             }
         }
         
-        return patients;
+        int humanCount = this.hospital.getHumanCount();
+        if (humanCount == 0 && this.hospital.endsRunWhenEmpty()) {
+            RunEnvironment.getInstance().endRun();
+        }
     }
     
     /**
-     * Attempt to find the exiting doctors
-     * @return The list of doctors trying to exit
+     * Add a human to the back of the exit queue
+     * The human waits without being stepped until it leaves, and the
+     * door is woken to let it out
+     * @param human The patient or escaping doctor that arrived at the door
+     * @param ticks Tick the human arrived at
      */
-    private List<Doctor> findExitingDoctors() {
-        GridPoint pt = this.grid.getLocation(this);
-        GridCellNgh<Doctor> nghCreator = new GridCellNgh<Doctor>(this.grid, pt, Doctor.class, 1, 1);
-        List<GridCell<Doctor>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        List<Doctor> doctors = new ArrayList<Doctor>();
-        for (GridCell<Doctor> cell : gridCells) {
-            for (Doctor d : cell.items()) {
-                if(d.getMode() == DoctorMode.ESCAPE) {
-                    doctors.add(d);
-                }
-            }
-        }
-        
-        return doctors;
+    public void joinQueue(Human human, double ticks) {
+        human.setQueued(true);
+        this.queue.add(human, ticks);
+        this.hospital.getScheduler().sleep((Steppable) human);
+        this.hospital.getScheduler().wake(this);
     }
     
-    /** 
-     * Randomly select and remove two patients who are trying to exit
-     * @param patients The list of patients trying to exit
+    /**
+     * Check that a queued human can still leave, i.e. it is alive, is still
+     * next to the door and, for a doctor, is still escaping
+     * Humans that cannot leave are dropped from the queue and join again
+     * when they next arrive
+     * @param human The human at the front of the queue
+     * @return Whether the human can leave
      */
-    private void allowPatientsToExit(List<Patient> patients) {
-        Context<Object> context = ContextUtils.getContext(this);
-        if (patients.size() > 2) {
-            SimUtilities.shuffle(patients, RandomHelper.getUniform());
-            Patient p = patients.remove(0);
-            context.remove(p);
-            p = patients.remove(0);
-            context.remove(p);
-        } else if (patients.size() > 0) {
-            for (Patient p : patients) {
-                context.remove(p);
-            }
+    private boolean canExit(Human human) {
+        if (human.isDead()) {
+            return false;
+        }
+        if (human instanceof Doctor && ((Doctor) human).getMode() != DoctorMode.ESCAPE) {
+            return false;
         }
         
-    	int humanCount = context.getObjects(Doctor.class).size() + context.getObjects(Patient.class).size();
-    	if (humanCount == 0) {
-    		RunEnvironment.getInstance().endRun();
-    	}
+        GridPoint pt = this.floor.getLocation(this);
+        GridPoint humanPt = this.floor.getLocation(human);
+        return humanPt != null && Math.abs(humanPt.getX() - pt.getX()) <= 1 && Math.abs(humanPt.getY() - pt.getY()) <= 1;
     }
     
     /**
-     * Randomly select and remove two doctors who are trying to exit
-     * @param doctors The list of doctors trying to exit
+     * Record how long a human that left waited in the queue
+     * @param wait Number of ticks the human waited
      */
-    private void allowDoctorsToExit(List<Doctor> doctors) {
-        Context<Object> context = ContextUtils.getContext(this);
-        if (doctors.size() > 2) {
-            SimUtilities.shuffle(doctors, RandomHelper.getUniform());
-            Doctor d = doctors.remove(0);
-            context.remove(d);
-            d = doctors.remove(0);
-            context.remove(d);
-        } else if (doctors.size() > 0) {
-            for (Doctor d : doctors) {
-                context.remove(d);
-            }
+    private void recordWait(double wait) {
+        this.exitedCount++;
+        this.totalWait += wait;
+        this.maxWait = Math.max(this.maxWait, wait);
+    }
+    
+    /**
+     * Remove a human that has made it out of the hospital, or send it on to
+     * another building if the door leads to one
+     * @param context Context the human is removed from
+     * @param human The patient or doctor exiting
+     */
+    private void exit(Context<Object> context, Human human) {
+        GridPoint pt = this.floor.getLocation(human);
+        CampusLink campus = this.hospital.getCampus();
+        if (campus != null && campus.isLinked(this)) {
+            campus.depart(this, human);
         }
-        
-        int humanCount = context.getObjects(Doctor.class).size() + context.getObjects(Patient.class).size();
-    	if (humanCount == 0) {
-    		RunEnvironment.getInstance().endRun();
-    	}
+        context.remove(human);
+        this.hospital.agentMoved(human, pt, null);
     }
 }
@@ -0,0 +1,117 @@
+package bitspls.evacuation;
+
+import java.util.Arrays;
+
+/**
+ * Class to represent a Doctor's knowledge of the doors in the hospital
+ * Knowledge is stored in arrays indexed by the id of each door, holding the
+ * status of the door and the tick it was last visited or observed at, which
+ * indicates the freshness of the data compared to other doctors'
+ *
+ * Every change bumps a version counter, and the version of every other
+ * doctor's knowledge is remembered when it is merged in, so merging from
+ * a doctor whose knowledge has not changed since is skipped
+ * @author Bits Please
+ */
+public class DoorKnowledge {
+	private static final double NEVER = Double.NEGATIVE_INFINITY;
+
+	private final int id;
+	private final DoorPointEnum[] status;	// null for doors that are not known
+	private final double[] lastVisit;
+	private int version;
+	private int[] mergedVersions;			// version of each other knowledge when last merged, by its id
+
+	/**
+	 * Constructor for knowledge of no doors
+	 * @param id Dense id of this knowledge among all doctors' knowledge
+	 * @param doorCount Number of doors in the hospital
+	 */
+	public DoorKnowledge(int id, int doorCount) {
+		this.id = id;
+		this.status = new DoorPointEnum[doorCount];
+		this.lastVisit = new double[doorCount];
+		Arrays.fill(this.lastVisit, NEVER);
+		this.version = 0;
+		this.mergedVersions = new int[0];
+	}
+
+	/**
+	 * Record the status of a door as seen at a tick
+	 * @param door Id of the door
+	 * @param doorStatus Status of the door
+	 * @param ticks Tick the door was visited or observed at
+	 */
+	public void update(int door, DoorPointEnum doorStatus, double ticks) {
+		if (status[door] != doorStatus || lastVisit[door] != ticks) {
+			status[door] = doorStatus;
+			lastVisit[door] = ticks;
+			version++;
+		}
+	}
+
+	/**
+	 * Take every door that another doctor has fresher knowledge of
+	 * @param other Knowledge of the other doctor
+	 * @return Whether this knowledge changed
+	 */
+	public boolean merge(DoorKnowledge other) {
+		if (other.id >= mergedVersions.length) {
+			int oldLength = mergedVersions.length;
+			mergedVersions = Arrays.copyOf(mergedVersions, Math.max(other.id + 1, oldLength * 2));
+			Arrays.fill(mergedVersions, oldLength, mergedVersions.length, -1);
+		}
+		if (mergedVersions[other.id] == other.version) {
+			return false;
+		}
+
+		boolean changed = false;
+		for (int door = 0; door < lastVisit.length; door++) {
+			if (other.lastVisit[door] > lastVisit[door]) {
+				status[door] = other.status[door];
+				lastVisit[door] = other.lastVisit[door];
+				changed = true;
+			}
+		}
+		if (changed) {
+			version++;
+		}
+		mergedVersions[other.id] = other.version;
+		return changed;
+	}
+
+	/**
+	 * Forget every door and every merge, keeping the version increasing so
+	 * knowledge that merged from this one before never skips it afterwards
+	 */
+	public void reset() {
+		Arrays.fill(status, null);
+		Arrays.fill(lastVisit, NEVER);
+		Arrays.fill(mergedVersions, -1);
+		version++;
+	}
+
+	/**
+	 * Check if a door is known
+	 * @param door Id of the door
+	 * @return Whether the door has been visited, observed or heard about
+	 */
+	public boolean isKnown(int door) {
+		return status[door] != null;
+	}
+
+	/*
+	 * Getters
+	 */
+	public DoorPointEnum getStatus(int door) {
+		return this.status[door];
+	}
+
+	public int getDoorCount() {
+		return this.status.length;
+	}
+
+	public int getId() {
+		return this.id;
+	}
+}
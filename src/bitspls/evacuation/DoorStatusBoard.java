@@ -0,0 +1,88 @@
+package bitspls.evacuation;
+
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.space.ZoneOccupancy;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to hold the status of every door in the hospital for the current tick
+ * Each door is checked once at the start of the tick using its own radius and
+ * thresholds, and every doctor that sees the door reads the result
+ *
+ * The crowded cells (cells with patients in the door's radius, read from
+ * the zone occupancy counts) and the gas pressure (cells with gas in the
+ * door's radius) of each door are read by the door's data set columns;
+ * the humans actually waiting to leave are in the door's exit queue
+ * @author Bits Please
+ */
+public class DoorStatusBoard {
+	private final Hospital hospital;
+	private final GasField gasField;
+
+	private int[] crowdedCells = new int[0];
+	private int[] gasPressures = new int[0];
+
+	/**
+	 * Constructor for the door status board
+	 * @param hospital Hospital the doors belong to
+	 * @param gasField Gas field covering the grid
+	 */
+	public DoorStatusBoard(Hospital hospital, GasField gasField) {
+		this.hospital = hospital;
+		this.gasField = gasField;
+	}
+
+	/**
+	 * Scheduled method to check every door before any doctor acts
+	 */
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
+	public void update() {
+		int doorCount = hospital.getDoorCount();
+		if (crowdedCells.length != doorCount) {
+			crowdedCells = new int[doorCount];
+			gasPressures = new int[doorCount];
+		}
+
+		ZoneOccupancy occupancy = hospital.getOccupancy();
+		for (int id = 0; id < doorCount; id++) {
+			Door door = hospital.getDoor(id);
+			GridPoint pt = hospital.getDoorPoint(id);
+			crowdedCells[id] = occupancy.getOccupiedCells(hospital.getDoorZone(door), Patient.class);
+			gasPressures[id] = gasField.countGasInRadius(pt, door.getRadius());
+		}
+	}
+
+	/**
+	 * Check if a door is blocked, i.e. there is at least the door's threshold
+	 * of gas cells near it
+	 * @param door The door to check
+	 * @return Whether the door is blocked
+	 */
+	public boolean isBlocked(Door door) {
+		return gasPressures[door.getId()] >= door.getBlockedThreshold();
+	}
+
+	/**
+	 * Check if a door is overcrowded, i.e. there is at least the door's
+	 * threshold of patients near it
+	 * @param door The door to check
+	 * @return Whether the door is overcrowded
+	 */
+	public boolean isOvercrowded(Door door) {
+		return crowdedCells[door.getId()] >= door.getOvercrowdingThreshold();
+	}
+
+	/*
+	 * Getters for the current tick
+	 */
+	public int getCrowdedCells(Door door) {
+		return this.crowdedCells[door.getId()];
+	}
+
+	public int getGasPressure(Door door) {
+		return this.gasPressures[door.getId()];
+	}
+}
@@ -0,0 +1,94 @@
+package bitspls.evacuation;
+
+import java.util.Arrays;
+
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Doctor.DoctorMode;
+import bitspls.evacuation.agents.Human;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to send humans to a door's exit queue when they arrive next to it
+ * Every cell next to a door (the door's cell and the 8 around it) is mapped
+ * to that door, so an arrival is found with a single lookup per move
+ *
+ * Patients join as soon as they arrive; doctors only join once they are
+ * escaping
+ * @author Bits Please
+ */
+public class ExitArrivals implements MoveListener {
+	private static final int NO_DOOR = -1;
+
+	private final Hospital hospital;
+	private final int width;
+	private final int height;
+	private final int[] cellDoor;
+	private int mappedDoors;
+
+	/**
+	 * Constructor for the exit arrivals
+	 * @param hospital Hospital the doors belong to
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public ExitArrivals(Hospital hospital, int width, int height) {
+		this.hospital = hospital;
+		this.width = width;
+		this.height = height;
+		this.cellDoor = new int[width * height];
+		Arrays.fill(this.cellDoor, NO_DOOR);
+		this.mappedDoors = 0;
+	}
+
+	/**
+	 * Check if a doctor or patient that entered or moved arrived at a door
+	 * Bodies are humans too, but are not in the agent store and never leave
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (to != null && (agent instanceof Doctor || agent instanceof Patient)) {
+			arrive((Human) agent, to);
+		}
+	}
+
+	/**
+	 * Add a human to the exit queue of the door it is next to, if it
+	 * is ready to leave and not queued already
+	 * @param human The human
+	 * @param pt Location of the human
+	 */
+	public void arrive(Human human, GridPoint pt) {
+		if (human.isDead() || human.isQueued()) {
+			return;
+		}
+		if (!(human instanceof Patient) && !(human instanceof Doctor && ((Doctor) human).getMode() == DoctorMode.ESCAPE)) {
+			return;
+		}
+
+		mapDoors();
+		int door = cellDoor[pt.getY() * width + pt.getX()];
+		if (door != NO_DOOR) {
+			double ticks = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+			hospital.getDoor(door).joinQueue(human, ticks);
+		}
+	}
+
+	/**
+	 * Map the cells next to any doors added since the last arrival
+	 */
+	private void mapDoors() {
+		for (; mappedDoors < hospital.getDoorCount(); mappedDoors++) {
+			GridPoint pt = hospital.getDoorPoint(mappedDoors);
+			for (int y = Math.max(0, pt.getY() - 1); y <= Math.min(height - 1, pt.getY() + 1); y++) {
+				for (int x = Math.max(0, pt.getX() - 1); x <= Math.min(width - 1, pt.getX() + 1); x++) {
+					if (cellDoor[y * width + x] == NO_DOOR) {
+						cellDoor[y * width + x] = mappedDoors;
+					}
+				}
+			}
+		}
+	}
+}
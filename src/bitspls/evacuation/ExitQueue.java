@@ -0,0 +1,85 @@
+package bitspls.evacuation;
+
+import bitspls.evacuation.agents.Human;
+
+/**
+ * Class to represent the queue of humans waiting to leave through a door
+ * Stored as a ring buffer that grows when full, along with the tick each
+ * human joined at so their wait can be measured when they leave
+ * @author Bits Please
+ */
+class ExitQueue {
+	private Human[] humans;
+	private double[] joinTicks;
+	private int head;
+	private int size;
+
+	/**
+	 * Constructor for an empty exit queue
+	 */
+	ExitQueue() {
+		this.humans = new Human[16];
+		this.joinTicks = new double[16];
+		this.head = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Add a human to the back of the queue
+	 * @param human The human joining
+	 * @param ticks Tick the human joined at
+	 */
+	void add(Human human, double ticks) {
+		if (size == humans.length) {
+			grow();
+		}
+		int tail = (head + size) % humans.length;
+		humans[tail] = human;
+		joinTicks[tail] = ticks;
+		size++;
+	}
+
+	/**
+	 * Get the human at the front of the queue
+	 * @return The first human in the queue
+	 */
+	Human peek() {
+		return humans[head];
+	}
+
+	/**
+	 * Get the tick the human at the front of the queue joined at
+	 * @return Tick the first human joined at
+	 */
+	double peekJoinTick() {
+		return joinTicks[head];
+	}
+
+	/**
+	 * Remove the human at the front of the queue
+	 */
+	void remove() {
+		humans[head] = null;
+		head = (head + 1) % humans.length;
+		size--;
+	}
+
+	/**
+	 * Double the capacity, unrolling the queue to the start of the arrays
+	 */
+	private void grow() {
+		Human[] grownHumans = new Human[humans.length * 2];
+		double[] grownTicks = new double[humans.length * 2];
+		for (int i = 0; i < size; i++) {
+			grownHumans[i] = humans[(head + i) % humans.length];
+			grownTicks[i] = joinTicks[(head + i) % humans.length];
+		}
+		humans = grownHumans;
+		joinTicks = grownTicks;
+		head = 0;
+	}
+
+	int size() {
+		return this.size;
+	}
+}
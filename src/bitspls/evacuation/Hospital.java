@@ -0,0 +1,264 @@
+package bitspls.evacuation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bitspls.evacuation.agents.AgentStore;
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.campus.CampusLink;
+import bitspls.evacuation.fields.CharismaField;
+import bitspls.evacuation.fields.PanicField;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.navigation.DoorIndex;
+import bitspls.evacuation.navigation.DoorRoutes;
+import bitspls.evacuation.schedule.ActivityScheduler;
+import bitspls.evacuation.schedule.ParallelScheduler;
+import bitspls.evacuation.schedule.SystemScheduler;
+import bitspls.evacuation.space.Floor;
+import bitspls.evacuation.space.MoveListener;
+import bitspls.evacuation.space.NeighborhoodCache;
+import bitspls.evacuation.space.ZoneOccupancy;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to hold the environment-wide state of the hospital that agents
+ * share, as opposed to the state each agent keeps for itself
+ * @author Bits Please
+ */
+public class Hospital {
+	private final GasField gasField;
+	private final DoorRoutes routes;
+	private final NeighborhoodCache queryCache;
+	private final PanicField panicField;
+	private final CharismaField charismaField;
+	private final KnowledgeExchange knowledgeExchange;
+	private final DoorStatusBoard doorStatusBoard;
+	private final AgentStore agents;
+	private final ZoneOccupancy occupancy;
+	private final PopulationLedger ledger;
+	private final ExitArrivals exitArrivals;
+	private final DoorIndex doorIndex;
+	private final ActivityScheduler scheduler;
+	private final SystemScheduler systems;
+	private final ParallelScheduler parallel;
+	private final List<MoveListener> moveListeners;
+	private final Floor floor;
+	private final List<Door> doors;
+	private final List<GridPoint> doorPoints;
+	private int knowledgeCount;
+	private CampusLink campus;		// null unless the hospital is one building of a campus
+
+	/**
+	 * Constructor for Hospital
+	 * @param floor Floor the hospital is laid out on
+	 * @param gasField Gas field covering the hospital
+	 */
+	public Hospital(Floor floor, GasField gasField) {
+		this.floor = floor;
+		this.doors = new ArrayList<Door>();
+		this.doorPoints = new ArrayList<GridPoint>();
+		this.knowledgeCount = 0;
+		this.gasField = gasField;
+		this.routes = new DoorRoutes(floor, gasField);
+		this.doorIndex = new DoorIndex(gasField.getWidth(), gasField.getHeight());
+		this.queryCache = new NeighborhoodCache(floor, gasField.getWidth(), gasField.getHeight());
+		this.agents = floor.getAgents();
+		this.panicField = new PanicField(agents, gasField.getWidth(), gasField.getHeight(), Patient.RADIUS_OF_KNOWLEDGE);
+		this.charismaField = new CharismaField(floor, gasField.getWidth(), gasField.getHeight(), Patient.RADIUS_OF_KNOWLEDGE);
+		this.knowledgeExchange = new KnowledgeExchange(this, floor, gasField.getWidth(), gasField.getHeight(), Doctor.RADIUS_OF_KNOWLEDGE);
+		this.doorStatusBoard = new DoorStatusBoard(this, gasField);
+		this.moveListeners = new ArrayList<MoveListener>();
+		this.moveListeners.add(agents);
+		this.moveListeners.add(queryCache);
+		this.occupancy = new ZoneOccupancy(gasField.getWidth(), gasField.getHeight());
+		this.moveListeners.add(occupancy);
+		this.ledger = new PopulationLedger();
+		this.moveListeners.add(ledger);
+		this.exitArrivals = new ExitArrivals(this, gasField.getWidth(), gasField.getHeight());
+		this.moveListeners.add(exitArrivals);
+		this.moveListeners.add(gasField);
+		this.scheduler = new ActivityScheduler();
+		this.moveListeners.add(scheduler);
+		this.systems = new SystemScheduler();
+		this.moveListeners.add(systems);
+		this.parallel = new ParallelScheduler(this);
+		this.moveListeners.add(parallel);
+	}
+
+	/**
+	 * Adds a door to the hospital, giving it the next dense door id
+	 * @param door Door to add
+	 */
+	public void addDoor(Door door) {
+		door.setId(this.doors.size());
+		this.doors.add(door);
+		this.doorPoints.add(null);
+		this.routes.addDoor(door);
+	}
+
+	/**
+	 * Get the grid location of a door
+	 * Doors never move, so the location is looked up once and kept
+	 * @param id Id of the door
+	 * @return Location of the door
+	 */
+	public GridPoint getDoorPoint(int id) {
+		GridPoint pt = this.doorPoints.get(id);
+		if (pt == null) {
+			pt = this.floor.getLocation(this.doors.get(id));
+			if (pt != null) {
+				this.doorPoints.set(id, pt);
+			}
+		}
+		return pt;
+	}
+
+	/**
+	 * Get the index for finding the doors closest to a point
+	 * Doors are added to the index the first time it is asked for, once
+	 * the doors have been placed on the grid
+	 * @return The door index
+	 */
+	public DoorIndex getDoorIndex() {
+		for (int id = this.doorIndex.getDoorCount(); id < this.doors.size(); id++) {
+			this.doorIndex.addDoor(getDoorPoint(id));
+		}
+		return this.doorIndex;
+	}
+
+	/**
+	 * Get the occupancy zone covering a door's radius
+	 * Zones are added for every door the first time one is asked for, once
+	 * the doors have been placed on the grid
+	 * @param door The door
+	 * @return Id of the door's zone
+	 */
+	public int getDoorZone(Door door) {
+		for (int id = this.occupancy.getZoneCount(); id < this.doors.size(); id++) {
+			this.occupancy.addZone(getDoorPoint(id), this.doors.get(id).getRadius());
+		}
+		return door.getId();
+	}
+
+	/**
+	 * Get the number of doctors and patients still in the hospital
+	 * @return Number of living humans that have not exited
+	 */
+	public int getHumanCount() {
+		return this.ledger.getHumanCount();
+	}
+
+	/**
+	 * Check if the hospital ends the run itself once no humans are left
+	 * A building of a campus is ended by the campus coordinator instead,
+	 * once every building is empty
+	 * @return Whether the run ends when the hospital is empty
+	 */
+	public boolean endsRunWhenEmpty() {
+		return this.campus == null;
+	}
+
+	/**
+	 * Create empty door knowledge for a doctor, sized to every door added so far
+	 * @return The new door knowledge
+	 */
+	public DoorKnowledge newDoorKnowledge() {
+		return new DoorKnowledge(this.knowledgeCount++, this.doors.size());
+	}
+
+	/**
+	 * Register a listener to be told about every agent changing cells
+	 * @param listener Listener to add
+	 */
+	public void addMoveListener(MoveListener listener) {
+		this.moveListeners.add(listener);
+	}
+
+	/**
+	 * Tell the listeners that an agent changed cells, entered or left the hospital
+	 * @param agent The agent that moved
+	 * @param from Previous cell, or null if the agent was just added
+	 * @param to New cell, or null if the agent was removed
+	 */
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		for (MoveListener listener : moveListeners) {
+			listener.agentMoved(agent, from, to);
+		}
+	}
+
+	/*
+	 * Getters
+	 */
+	public Door getDoor(int id) {
+		return this.doors.get(id);
+	}
+
+	public int getDoorCount() {
+		return this.doors.size();
+	}
+
+	public GasField getGasField() {
+		return this.gasField;
+	}
+
+	public DoorRoutes getRoutes() {
+		return this.routes;
+	}
+
+	public NeighborhoodCache getQueryCache() {
+		return this.queryCache;
+	}
+
+	public PanicField getPanicField() {
+		return this.panicField;
+	}
+
+	public CharismaField getCharismaField() {
+		return this.charismaField;
+	}
+
+	public KnowledgeExchange getKnowledgeExchange() {
+		return this.knowledgeExchange;
+	}
+
+	public DoorStatusBoard getDoorStatusBoard() {
+		return this.doorStatusBoard;
+	}
+
+	public AgentStore getAgents() {
+		return this.agents;
+	}
+
+	public ZoneOccupancy getOccupancy() {
+		return this.occupancy;
+	}
+
+	public PopulationLedger getLedger() {
+		return this.ledger;
+	}
+
+	public ExitArrivals getExitArrivals() {
+		return this.exitArrivals;
+	}
+
+	public ActivityScheduler getScheduler() {
+		return this.scheduler;
+	}
+
+	public SystemScheduler getSystems() {
+		return this.systems;
+	}
+
+	public ParallelScheduler getParallel() {
+		return this.parallel;
+	}
+
+	public CampusLink getCampus() {
+		return this.campus;
+	}
+
+	public void setCampus(CampusLink campus) {
+		this.campus = campus;
+	}
+}
@@ -1,5 +1,6 @@
 package bitspls.evacuation;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -7,26 +8,26 @@ import java.util.Random;
 import repast.simphony.context.Context;
 import repast.simphony.context.space.continuous.ContinuousSpaceFactory;
 import repast.simphony.context.space.continuous.ContinuousSpaceFactoryFinder;
-import repast.simphony.context.space.grid.GridFactory;
-import repast.simphony.context.space.grid.GridFactoryFinder;
 import repast.simphony.dataLoader.ContextBuilder;
 import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.parameter.Parameters;
+import repast.simphony.random.RandomHelper;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.space.continuous.RandomCartesianAdder;
-import repast.simphony.space.grid.BouncyBorders;
-import repast.simphony.space.grid.Grid;
-import repast.simphony.space.grid.GridBuilderParameters;
-import repast.simphony.space.grid.SimpleGridAdder;
+import repast.simphony.space.continuous.SimpleCartesianAdder;
+import bitspls.evacuation.agents.AgentStore;
 import bitspls.evacuation.agents.Doctor;
-import bitspls.evacuation.agents.GasParticle;
+import bitspls.evacuation.agents.Human;
 import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.campus.CampusLink;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.schedule.SystemScheduler;
+import bitspls.evacuation.space.Floor;
 
 /**
  * @author Bits Please
  * HospitalEvacuationBuilder builds the initial space and grid
- * Doctors, Patients, Gas Particles, and Doors are placed into the space and grid
+ * Doctors, Patients, the Gas Field, and Doors are placed into the space and grid
  * The relevant user parameters are read in from the Repast GUI and used
  * to calculate values (agent counts, starting panic, charisma, etc.)
  */
@@ -41,27 +42,88 @@ public class HospitalEvacuationBuilder implements ContextBuilder<Object> {
 
 		Parameters params = RunEnvironment.getInstance().getParameters();
 		
+		/*
+		 * Objects are not given a location when they are added, so the
+		 * fields, schedulers and counters kept in the context for their
+		 * scheduled methods and data sets stay out of the space (and off the
+		 * displays); doctors and patients are placed randomly as they are created
+		 */
 		ContinuousSpaceFactory spaceFactory = ContinuousSpaceFactoryFinder
 				.createContinuousSpaceFactory(null);
 		ContinuousSpace<Object> space = spaceFactory.createContinuousSpace(
-				"space", context, new RandomCartesianAdder<Object>(),
+				"space", context, new SimpleCartesianAdder<Object>(),
 				new repast.simphony.space.continuous.BouncyBorders(), new double[] {200, 150},
 				new double[] {0, 0});
 
-		GridFactory gridFactory = GridFactoryFinder.createGridFactory(null);
-		Grid<Object> grid = gridFactory.createGrid("grid", context,
-				new GridBuilderParameters<Object>(new BouncyBorders(),
-						new SimpleGridAdder<Object>(), true, new int[] {200, 150}, new int[] {0, 0}));
+		/*
+		 * Grid cells are derived from the continuous locations held in the
+		 * agent store rather than kept in a second Repast projection
+		 */
+		Floor floor = new Floor(new AgentStore(200, 150, 64), 200, 150);
 
+		/*
+		 * Gas is tracked as an occupancy field over the grid rather than
+		 * as individual agents, seeded with a single randomly placed cell
+		 */
+		GasField gasField = new GasField(floor, 200, 150);
+		context.add(gasField);
+		context.addValueLayer(gasField);
+		
 		int gasCount = 1;
 		for (int i = 0; i < gasCount; i++) {
-			context.add(new GasParticle(space, grid));
+			gasField.addGas(RandomHelper.nextIntFromTo(0, 199), RandomHelper.nextIntFromTo(0, 149));
+		}
+		
+		Hospital hospital = new Hospital(floor, gasField);
+		context.add(hospital.getQueryCache());
+		context.add(hospital.getPanicField());
+		context.add(hospital.getCharismaField());
+		context.add(hospital.getKnowledgeExchange());
+		context.add(hospital.getDoorStatusBoard());
+		context.add(hospital.getLedger());
+		
+		/*
+		 * Agents are either stepped one at a time by the activity scheduler,
+		 * run in batches by the system scheduler, or run synchronously with
+		 * patients on several threads, per the execution_mode parameter
+		 */
+		String executionMode = params.getString("execution_mode");
+		boolean systemsMode = "Systems".equalsIgnoreCase(executionMode) || "Synchronous".equalsIgnoreCase(executionMode);
+		SystemScheduler systems = hospital.getSystems();
+		if ("Synchronous".equalsIgnoreCase(executionMode)) {
+			hospital.getParallel().setParallelism(params.getInteger("worker_threads"));
+			hospital.getParallel().setBandCount(params.getInteger("band_count"));
+			systems = hospital.getParallel();
+		}
+		if (systemsMode) {
+			context.add(systems);
+		} else {
+			context.add(hospital.getScheduler());
+		}
+		
+		/*
+		 * When a coordinator address is given the hospital is one building
+		 * of a campus: connecting waits for every other building, and the
+		 * coordinator rather than the building decides when the run ends
+		 * The link is scheduled directly rather than added to the context, as
+		 * it needs no location and no data set reads it
+		 */
+		String coordinator = params.getString("coordinator");
+		if (coordinator != null && !coordinator.trim().isEmpty()) {
+			CampusLink campus;
+			try {
+				campus = new CampusLink(coordinator.trim());
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not join the campus at " + coordinator, e);
+			}
+			campus.attach(context, space, floor, hospital, systemsMode ? systems : null);
+			hospital.setCampus(campus);
+			RunEnvironment.getInstance().getCurrentSchedule().schedule(campus);
 		}
 		
 		/*
 		 * Doors are statically placed along the edges of the space
 		 */
-		List<Door> doors = new ArrayList<Door>();
 		double[][] doorLocations = new double[][]
 				{ new double[] { 0.1, 74 },
 				new double[] { 199.9, 74 },
@@ -73,12 +135,18 @@ public class HospitalEvacuationBuilder implements ContextBuilder<Object> {
 		int overcrowdingThreshold = params.getInteger("overcrowding_threshold");
 		int blockedThreshold = params.getInteger("blocked_threshold");
         int doorRadius = params.getInteger("door_radius");
+        int doorCapacity = params.getInteger("door_capacity");
         
         for (double[] location : doorLocations) {
-            Door door = new Door(space, grid, doorRadius, overcrowdingThreshold, blockedThreshold);
+            Door door = new Door(space, floor, hospital, doorRadius, overcrowdingThreshold, blockedThreshold, doorCapacity);
             context.add(door);
             space.moveTo(door, location);
-            doors.add(door);
+            hospital.addDoor(door);
+            if (systemsMode) {
+                systems.add(door);
+            } else {
+                hospital.getScheduler().add(door);
+            }
         }
 		
 		Random r = new Random();
@@ -94,8 +162,14 @@ public class HospitalEvacuationBuilder implements ContextBuilder<Object> {
 		double stdCharisma = params.getDouble("std_charisma");
 		int doctorCount = params.getInteger("doctor_count");
 		for (int i = 0; i < doctorCount; i++) {
-			Doctor doctor = new Doctor(space, grid, meanCharisma, stdCharisma, r);
+			Doctor doctor = new Doctor(space, floor, hospital, meanCharisma, stdCharisma, r);
 			context.add(doctor);
+			placeRandomly(space, doctor);
+			if (systemsMode) {
+				systems.add(doctor);
+			} else {
+				hospital.getScheduler().add(doctor);
+			}
 			doctors.add(doctor);
 		}
 		
@@ -110,72 +184,65 @@ public class HospitalEvacuationBuilder implements ContextBuilder<Object> {
 		double patientPanicWeight = params.getDouble("patient_weight");
 		int patientCount = params.getInteger("patient_count");
 		for (int i = 0; i < patientCount; i++) {
-			Patient p = new Patient(space, grid, patientPanicWeight, meanPanic, stdPanic, r);
+			Patient p = new Patient(space, floor, hospital, patientPanicWeight, meanPanic, stdPanic, r);
 			context.add(p);
+			placeRandomly(space, p);
+			if (systemsMode) {
+				systems.add(p);
+			} else {
+				hospital.getScheduler().add(p);
+			}
 		}
 
 		for (Object obj : context) {
-			NdPoint pt = space.getLocation(obj);
-			grid.moveTo(obj, (int) pt.getX(), (int) pt.getY());
+			if (obj instanceof Human || obj instanceof Door) {
+				NdPoint pt = space.getLocation(obj);
+				floor.place(obj, pt.getX(), pt.getY());
+			}
+		}
+		
+		/*
+		 * Tell the hospital about every human once everything, doors
+		 * included, has been placed on the grid
+		 */
+		for (Object obj : context) {
+			if (obj instanceof Human) {
+				hospital.agentMoved(obj, null, floor.getLocation(obj));
+			}
 		}
 		
 		/*
 		 * Give doctors knowledge of the closest 3 doors
 		 */
 		for (Doctor doctor : doctors) {
-			findClosestThreeDoors(doctor, doors, space);
+			findClosestThreeDoors(doctor, hospital, floor);
 		}
 				
 		return context;
 	}
 	
+	/**
+	 * Move a human to a random location in the space
+	 * @param space Space to place the human in
+	 * @param human The doctor or patient to place
+	 */
+	private void placeRandomly(ContinuousSpace<Object> space, Human human) {
+		space.moveTo(human, RandomHelper.nextDoubleFromTo(0, 200), RandomHelper.nextDoubleFromTo(0, 150));
+	}
+	
 	/**
 	 * Find the closest 3 doors to a doctor and adds them to it's knowledge
 	 * This is one of the few pieces of global knowledge that the doctors have
 	 * @param doctor Doctor to give knowledge of doors to
-	 * @param doors List of all doors in the context
-	 * @param space The continuous space in which the doors are located
+	 * @param hospital Hospital the doors belong to
+	 * @param floor Floor in which the doctor is located
 	 */
-	private void findClosestThreeDoors(Doctor doctor, List<Door> doors, ContinuousSpace<Object> space) {
-		double closestDoorDistance = Double.POSITIVE_INFINITY;
-		double secondClosestDoorDistance = Double.POSITIVE_INFINITY;
-		double thirdClosestDoorDistance = Double.POSITIVE_INFINITY;
-		
-		NdPoint closestDoor = null,
-				secondClosestDoor = null,
-				thirdClosestDoor = null;
-		
-		NdPoint doctorLocation = space.getLocation(doctor);
+	private void findClosestThreeDoors(Doctor doctor, Hospital hospital, Floor floor) {
+		int[] closestDoors = new int[3];
+		int found = hospital.getDoorIndex().nearest(floor.getLocation(doctor), 3, door -> true, closestDoors);
 		
-		/*
-		 * Iterate through all doors, keeping track of the 3 minimum distances and
-		 * the doors at those distances
-		 */
-		for (Door door : doors) {
-			NdPoint point = space.getLocation(door);
-			double distance = Math.sqrt(Math.pow(point.getX() - doctorLocation.getX(), 2)
-					+ Math.pow(point.getY() - doctorLocation.getY(), 2));
-			
-			if (distance < closestDoorDistance) {
-				thirdClosestDoor = secondClosestDoor;
-				thirdClosestDoorDistance = secondClosestDoorDistance;
-				secondClosestDoor = closestDoor;
-				secondClosestDoorDistance = closestDoorDistance;
-				closestDoorDistance = distance;
-				closestDoor = point;
-			} else if (distance < secondClosestDoorDistance) {
-				thirdClosestDoor = secondClosestDoor;
-				thirdClosestDoorDistance = secondClosestDoorDistance;
-				secondClosestDoorDistance = distance;
-				secondClosestDoor = point;
-			} else if (distance < thirdClosestDoorDistance) {
-				thirdClosestDoorDistance = distance;
-				thirdClosestDoor = point;
-			}
+		for (int i = 0; i < found; i++) {
+			doctor.addDoor(hospital.getDoor(closestDoors[i]), DoorPointEnum.AVAILABLE);
 		}
-		
-		doctor.addDoor(closestDoor, DoorPointEnum.AVAILABLE);
-		doctor.addDoor(secondClosestDoor, DoorPointEnum.AVAILABLE);
-		doctor.addDoor(thirdClosestDoor, DoorPointEnum.AVAILABLE);
 	}
 }
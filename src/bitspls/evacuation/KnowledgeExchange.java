@@ -0,0 +1,180 @@
+package bitspls.evacuation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.context.Context;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.space.grid.GridPoint;
+import repast.simphony.util.ContextUtils;
+
+/**
+ * Class to model doctors sharing their knowledge of the doors
+ * At the start of every tick the doctors are grouped into clusters of doctors
+ * that can reach each other through a chain of doctors within communication
+ * range, and every doctor in a cluster learns everything the cluster knows
+ *
+ * Clusters are found with union-find over a spatial hash whose buckets are
+ * as wide as the communication range, so only doctors in neighboring buckets
+ * are compared, and doctors are visited in a fixed order so the outcome does
+ * not depend on the order agents are scheduled in
+ * @author Bits Please
+ */
+public class KnowledgeExchange {
+	private final Hospital hospital;
+	private final Floor floor;
+	private final int range;
+	private final int bucketsX;
+	private final int bucketsY;
+	private final int[] bucketHead;
+	private final List<Doctor> doctors;
+	private DoorKnowledge clusterView;
+
+	// Per-doctor scratch arrays, indexed by position in the sorted list of doctors
+	private int[] xs = new int[16];
+	private int[] ys = new int[16];
+	private int[] bucketNext = new int[16];
+	private int[] parent = new int[16];
+	private int[] clusterNext = new int[16];
+
+	/**
+	 * Constructor for the knowledge exchange
+	 * @param hospital Hospital the doctors share knowledge of
+	 * @param floor Floor the doctors are located in
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param range Largest distance in each direction doctors can talk over
+	 */
+	public KnowledgeExchange(Hospital hospital, Floor floor, int width, int height, int range) {
+		this.hospital = hospital;
+		this.floor = floor;
+		this.range = Math.max(1, range);
+		this.bucketsX = (width + this.range - 1) / this.range;
+		this.bucketsY = (height + this.range - 1) / this.range;
+		this.bucketHead = new int[bucketsX * bucketsY];
+		this.doctors = new ArrayList<Doctor>();
+	}
+
+	/**
+	 * Scheduled method to exchange knowledge before any doctor acts
+	 */
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
+	public void exchange() {
+		collectDoctors();
+		int n = doctors.size();
+
+		// Hash every doctor into the bucket it is in
+		Arrays.fill(bucketHead, -1);
+		for (int i = 0; i < n; i++) {
+			int bucket = (ys[i] / range) * bucketsX + xs[i] / range;
+			bucketNext[i] = bucketHead[bucket];
+			bucketHead[bucket] = i;
+			parent[i] = i;
+		}
+
+		// Join every doctor with the doctors in range of it
+		for (int i = 0; i < n; i++) {
+			int bx = xs[i] / range;
+			int by = ys[i] / range;
+			for (int y = Math.max(0, by - 1); y <= Math.min(bucketsY - 1, by + 1); y++) {
+				for (int x = Math.max(0, bx - 1); x <= Math.min(bucketsX - 1, bx + 1); x++) {
+					for (int j = bucketHead[y * bucketsX + x]; j != -1; j = bucketNext[j]) {
+						if (j < i && Math.abs(xs[i] - xs[j]) <= range && Math.abs(ys[i] - ys[j]) <= range) {
+							union(i, j);
+						}
+					}
+				}
+			}
+		}
+
+		// Chain the members of each cluster behind its root, in doctor order
+		Arrays.fill(clusterNext, 0, n, -1);
+		for (int i = n - 1; i >= 0; i--) {
+			int root = find(i);
+			if (root != i) {
+				clusterNext[i] = clusterNext[root];
+				clusterNext[root] = i;
+			}
+		}
+
+		if (clusterView == null || clusterView.getDoorCount() != hospital.getDoorCount()) {
+			clusterView = hospital.newDoorKnowledge();
+		}
+
+		for (int root = 0; root < n; root++) {
+			if (parent[root] != root || clusterNext[root] == -1) {
+				continue;
+			}
+
+			clusterView.reset();
+			for (int i = root; i != -1; i = clusterNext[i]) {
+				clusterView.merge(doctors.get(i).getDoorKnowledge());
+			}
+			for (int i = root; i != -1; i = clusterNext[i]) {
+				doctors.get(i).getDoorKnowledge().merge(clusterView);
+			}
+		}
+	}
+
+	/**
+	 * Gather the living doctors in a fixed order along with their locations
+	 */
+	private void collectDoctors() {
+		doctors.clear();
+		Context<Object> context = ContextUtils.getContext(this);
+		for (Object obj : context.getObjects(Doctor.class)) {
+			Doctor doctor = (Doctor) obj;
+			if (!doctor.isDead() && floor.getLocation(doctor) != null) {
+				doctors.add(doctor);
+			}
+		}
+		doctors.sort((a, b) -> Integer.compare(a.getDoorKnowledge().getId(), b.getDoorKnowledge().getId()));
+
+		int n = doctors.size();
+		if (n > xs.length) {
+			int capacity = Math.max(n, xs.length * 2);
+			xs = new int[capacity];
+			ys = new int[capacity];
+			bucketNext = new int[capacity];
+			parent = new int[capacity];
+			clusterNext = new int[capacity];
+		}
+		for (int i = 0; i < n; i++) {
+			GridPoint pt = floor.getLocation(doctors.get(i));
+			xs[i] = pt.getX();
+			ys[i] = pt.getY();
+		}
+	}
+
+	/**
+	 * Find the root of a doctor's cluster, halving the path on the way
+	 * @param i Position of the doctor
+	 * @return Position of the root doctor
+	 */
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Join the clusters of two doctors, keeping the lower position as the root
+	 * @param i Position of one doctor
+	 * @param j Position of the other doctor
+	 */
+	private void union(int i, int j) {
+		int a = find(i);
+		int b = find(j);
+		if (a < b) {
+			parent[b] = a;
+		} else if (b < a) {
+			parent[a] = b;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package bitspls.evacuation;
+
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Human;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to keep count of the doctors and patients that are in the hospital,
+ * have exited or have died, so the counts never need to be found by
+ * searching the context
+ *
+ * Counts follow the agents entering and leaving the grid: a human that is
+ * placed has spawned (or arrived from another building of the campus), and
+ * a human that is removed has died if it is dead, departed if it left for
+ * another building and exited otherwise
+ * @author Bits Please
+ */
+public class PopulationLedger implements MoveListener {
+	private int liveDoctors;
+	private int livePatients;
+	private int exitedDoctors;
+	private int exitedPatients;
+	private int deadDoctors;
+	private int deadPatients;
+	private int departedDoctors;
+	private int departedPatients;
+
+	/**
+	 * Update the counts when a human enters or leaves the hospital
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (!(agent instanceof Doctor || agent instanceof Patient) || (from != null && to != null)) {
+			return;
+		}
+
+		Human human = (Human) agent;
+		boolean doctor = human instanceof Doctor;
+		if (from == null) {
+			if (doctor) {
+				liveDoctors++;
+			} else {
+				livePatients++;
+			}
+		} else if (human.isDead()) {
+			if (doctor) {
+				liveDoctors--;
+				deadDoctors++;
+			} else {
+				livePatients--;
+				deadPatients++;
+			}
+		} else if (human.hasMigrated()) {
+			if (doctor) {
+				liveDoctors--;
+				departedDoctors++;
+			} else {
+				livePatients--;
+				departedPatients++;
+			}
+		} else {
+			if (doctor) {
+				liveDoctors--;
+				exitedDoctors++;
+			} else {
+				livePatients--;
+				exitedPatients++;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of doctors and patients still in the hospital
+	 * @return Number of living humans that have not exited
+	 */
+	public int getHumanCount() {
+		return this.liveDoctors + this.livePatients;
+	}
+
+	/*
+	 * Getters
+	 */
+	public int getLiveDoctors() {
+		return this.liveDoctors;
+	}
+
+	public int getLivePatients() {
+		return this.livePatients;
+	}
+
+	public int getExitedDoctors() {
+		return this.exitedDoctors;
+	}
+
+	public int getExitedPatients() {
+		return this.exitedPatients;
+	}
+
+	public int getDeadDoctors() {
+		return this.deadDoctors;
+	}
+
+	public int getDeadPatients() {
+		return this.deadPatients;
+	}
+
+	public int getDepartedDoctors() {
+		return this.departedDoctors;
+	}
+
+	public int getDepartedPatients() {
+		return this.departedPatients;
+	}
+}
@@ -0,0 +1,393 @@
+package bitspls.evacuation.agents;
+
+import java.util.Arrays;
+
+import bitspls.evacuation.space.CellLocks;
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to hold the per-tick state of every human agent as a set of
+ * parallel primitive arrays, indexed by a dense agent id
+ *
+ * Patient and Doctor objects stay in the context so Repast can display
+ * them, but their position, panic, mode, followed doctor and flags are
+ * read from and written to the store, so sweeps over every agent (ex.
+ * rasterizing panic) walk a few arrays instead of chasing objects
+ *
+ * Agents on the floor are also linked into an intrusive list per grid
+ * cell, kept up to date as their location is written, so finding the
+ * agents in a cell needs no other projection
+ *
+ * The buckets are guarded by lock stripes over the cells, so agents can
+ * move and read cells from several threads at once as long as each agent
+ * is only moved by one thread at a time; adding agents is not thread-safe
+ * and happens while the model is built
+ *
+ * While the store is deferring, moves, deaths and changes of followed
+ * doctor are recorded against the agent instead of applied, so every agent
+ * reads the floor as it was at the start of the tick; they are applied
+ * when each agent commits
+ *
+ * Ids are handed out in order and never reused, so an id held by
+ * another agent (ex. the doctor a patient follows) stays valid after
+ * the agent dies or exits
+ * @author Bits Please
+ */
+public class AgentStore implements MoveListener {
+	public static final int NONE = -1;
+
+	// Flag bits
+	static final byte PATIENT = 1;		// the agent is a patient rather than a doctor
+	static final byte DEAD = 2;
+	static final byte QUEUED = 4;
+	static final byte EXITED = 8;
+	static final byte GOAL_SEEK = 16;
+	static final byte MOVE_PENDING = 32;
+	static final byte KILL_PENDING = 64;
+	static final byte MIGRATED = (byte) 128;	// the agent left for another building rather than exiting
+
+	private final int width;
+	private final int height;
+	private final int[] cellHead;		// first agent in each cell, or NONE
+	private final CellLocks locks;
+	private Human[] agents;
+	private double[] x;
+	private double[] y;
+	private int[] cell;				// cell on the floor, or NONE before spawning and after leaving
+	private int[] nextInCell;
+	private int[] prevInCell;
+	private double[] panic;
+	private byte[] mode;
+	private int[] followed;
+	private byte[] flags;
+	private double[] pendingAngle;
+	private int[] pendingFollow;
+	private int[] pendingUnfollow;
+	private int size;
+	private volatile boolean deferring;
+
+	/**
+	 * Constructor for an empty store
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param stripes Number of lock stripes to guard the cells with
+	 */
+	public AgentStore(int width, int height, int stripes) {
+		this.width = width;
+		this.height = height;
+		this.cellHead = new int[width * height];
+		Arrays.fill(cellHead, NONE);
+		this.locks = new CellLocks(stripes);
+		this.size = 0;
+		grow(256);
+	}
+
+	/**
+	 * Give an agent the next id and a slot in the store
+	 * @param agent Agent to add
+	 * @return Id of the agent
+	 */
+	int add(Human agent) {
+		if (size == agents.length) {
+			grow(size * 2);
+		}
+
+		int id = size++;
+		agents[id] = agent;
+		cell[id] = NONE;
+		followed[id] = NONE;
+		pendingFollow[id] = NONE;
+		pendingUnfollow[id] = NONE;
+		flags[id] = GOAL_SEEK;
+		if (agent instanceof Patient) {
+			flags[id] |= PATIENT;
+		}
+		return id;
+	}
+
+	/**
+	 * Record the continuous location of an agent, moving it to the bucket
+	 * of its new cell if it changed cells
+	 * @param id Id of the agent that moved
+	 * @param px X-coordinate of the agent
+	 * @param py Y-coordinate of the agent
+	 */
+	public void moveTo(int id, double px, double py) {
+		x[id] = px;
+		y[id] = py;
+		int cx = Math.min(width - 1, Math.max(0, (int) px));
+		int cy = Math.min(height - 1, Math.max(0, (int) py));
+		int c = cy * width + cx;
+		int old = cell[id];
+		if (c == old) {
+			return;
+		}
+
+		if (old == NONE) {
+			synchronized (locks.forCell(c)) {
+				link(id, c);
+			}
+		} else {
+			synchronized (locks.first(old, c)) {
+				synchronized (locks.second(old, c)) {
+					unlink(id);
+					link(id, c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take agents off the floor as they die or exit
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (to == null && agent instanceof Human) {
+			int id = ((Human) agent).getAgentId();
+			if (id != NONE && cell[id] != NONE) {
+				synchronized (locks.forCell(cell[id])) {
+					unlink(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add an agent to the front of a cell's bucket, holding the cell's lock
+	 * @param id Id of the agent
+	 * @param c Index of the cell
+	 */
+	private void link(int id, int c) {
+		int head = cellHead[c];
+		nextInCell[id] = head;
+		prevInCell[id] = NONE;
+		if (head != NONE) {
+			prevInCell[head] = id;
+		}
+		cellHead[c] = id;
+		cell[id] = c;
+	}
+
+	/**
+	 * Remove an agent from its cell's bucket, if it is in one, holding the cell's lock
+	 * @param id Id of the agent
+	 */
+	private void unlink(int id) {
+		int c = cell[id];
+		if (c == NONE) {
+			return;
+		}
+
+		int next = nextInCell[id];
+		int prev = prevInCell[id];
+		if (prev == NONE) {
+			cellHead[c] = next;
+		} else {
+			nextInCell[prev] = next;
+		}
+		if (next != NONE) {
+			prevInCell[next] = prev;
+		}
+		cell[id] = NONE;
+	}
+
+	/**
+	 * Add the panic of every patient on the grid to the cell it is in
+	 * @param panicRaster Sum of the non-negative panic levels in each cell
+	 * @param countRaster Number of patients in each cell
+	 */
+	public void rasterizePanic(double[] panicRaster, double[] countRaster) {
+		for (int id = 0; id < size; id++) {
+			int c = cell[id];
+			if ((flags[id] & PATIENT) != 0 && c != NONE) {
+				if (panic[id] >= 0) {
+					panicRaster[c] += panic[id];
+				}
+				countRaster[c]++;
+			}
+		}
+	}
+
+	/**
+	 * Resize every array to a new capacity
+	 * @param capacity Number of agents to make room for
+	 */
+	private void grow(int capacity) {
+		if (agents == null) {
+			agents = new Human[capacity];
+			x = new double[capacity];
+			y = new double[capacity];
+			cell = new int[capacity];
+			nextInCell = new int[capacity];
+			prevInCell = new int[capacity];
+			panic = new double[capacity];
+			mode = new byte[capacity];
+			followed = new int[capacity];
+			flags = new byte[capacity];
+			pendingAngle = new double[capacity];
+			pendingFollow = new int[capacity];
+			pendingUnfollow = new int[capacity];
+		} else {
+			agents = Arrays.copyOf(agents, capacity);
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			cell = Arrays.copyOf(cell, capacity);
+			nextInCell = Arrays.copyOf(nextInCell, capacity);
+			prevInCell = Arrays.copyOf(prevInCell, capacity);
+			panic = Arrays.copyOf(panic, capacity);
+			mode = Arrays.copyOf(mode, capacity);
+			followed = Arrays.copyOf(followed, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+			pendingAngle = Arrays.copyOf(pendingAngle, capacity);
+			pendingFollow = Arrays.copyOf(pendingFollow, capacity);
+			pendingUnfollow = Arrays.copyOf(pendingUnfollow, capacity);
+		}
+	}
+
+	/*
+	 * Getters & Setters
+	 */
+	public Human get(int id) {
+		return id == NONE ? null : agents[id];
+	}
+
+	/**
+	 * Get the first agent in a cell's bucket
+	 * Callers walking a bucket hold the cell's lock from getLocks
+	 * @param c Index of the cell
+	 * @return Id of the agent, or NONE if the cell is empty
+	 */
+	public int firstInCell(int c) {
+		return cellHead[c];
+	}
+
+	/**
+	 * Get the next agent in the same cell's bucket
+	 * @param id Id of the current agent
+	 * @return Id of the next agent, or NONE at the end of the bucket
+	 */
+	public int nextInCell(int id) {
+		return nextInCell[id];
+	}
+
+	boolean hasFlag(int id, byte flag) {
+		return (flags[id] & flag) != 0;
+	}
+
+	/**
+	 * Clear a flag of an agent
+	 * @param id Id of the agent
+	 * @param flag Flag to clear
+	 * @return Whether the flag was set
+	 */
+	boolean takeFlag(int id, byte flag) {
+		boolean set = hasFlag(id, flag);
+		setFlag(id, flag, false);
+		return set;
+	}
+
+	void setFlag(int id, byte flag, boolean value) {
+		if (value) {
+			flags[id] |= flag;
+		} else {
+			flags[id] &= ~flag;
+		}
+	}
+
+	double getPanic(int id) {
+		return panic[id];
+	}
+
+	void setPanic(int id, double value) {
+		panic[id] = value;
+	}
+
+	int getMode(int id) {
+		return mode[id];
+	}
+
+	void setMode(int id, int value) {
+		mode[id] = (byte) value;
+	}
+
+	int getFollowed(int id) {
+		return followed[id];
+	}
+
+	void setFollowed(int id, int doctor) {
+		followed[id] = doctor;
+	}
+
+	/**
+	 * Record a move for the agent to make when it commits
+	 * @param id Id of the agent
+	 * @param angle Angle to move along
+	 */
+	void deferMove(int id, double angle) {
+		pendingAngle[id] = angle;
+		setFlag(id, MOVE_PENDING, true);
+	}
+
+	double getPendingAngle(int id) {
+		return pendingAngle[id];
+	}
+
+	/**
+	 * Record a doctor for a patient to start following when it commits
+	 * @param id Id of the patient
+	 * @param doctor Id of the doctor
+	 */
+	void deferFollow(int id, int doctor) {
+		pendingFollow[id] = doctor;
+	}
+
+	/**
+	 * Record a doctor for a patient to stop following when it commits
+	 * @param id Id of the patient
+	 * @param doctor Id of the doctor
+	 */
+	void deferUnfollow(int id, int doctor) {
+		pendingUnfollow[id] = doctor;
+	}
+
+	int takePendingFollow(int id) {
+		int doctor = pendingFollow[id];
+		pendingFollow[id] = NONE;
+		return doctor;
+	}
+
+	int takePendingUnfollow(int id) {
+		int doctor = pendingUnfollow[id];
+		pendingUnfollow[id] = NONE;
+		return doctor;
+	}
+
+	public boolean isDeferring() {
+		return this.deferring;
+	}
+
+	public void setDeferring(boolean deferring) {
+		this.deferring = deferring;
+	}
+
+	public double getX(int id) {
+		return x[id];
+	}
+
+	public double getY(int id) {
+		return y[id];
+	}
+
+	public int getCell(int id) {
+		return cell[id];
+	}
+
+	public CellLocks getLocks() {
+		return this.locks;
+	}
+
+	public int size() {
+		return this.size;
+	}
+}
@@ -5,24 +5,23 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
-import bitspls.evacuation.DoctorDoorPoint;
 import bitspls.evacuation.Door;
+import bitspls.evacuation.DoorKnowledge;
 import bitspls.evacuation.DoorPointEnum;
+import bitspls.evacuation.DoorStatusBoard;
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.schedule.Steppable;
+import bitspls.evacuation.space.Floor;
+import bitspls.evacuation.space.GridQuery;
 import javafx.util.Pair;
 import repast.simphony.context.Context;
 import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.parameter.Parameters;
-import repast.simphony.query.space.grid.GridCellNgh;
 import repast.simphony.random.RandomHelper;
-import repast.simphony.relogo.Utility;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.space.grid.Grid;
 import repast.simphony.space.grid.GridPoint;
 import repast.simphony.util.ContextUtils;
-import repast.simphony.util.SimUtilities;
-import repast.simphony.query.space.grid.GridCell;
 
 /**
  * Class to model the Doctor agent
@@ -40,9 +39,12 @@ import repast.simphony.query.space.grid.GridCell;
  * @author Bits Please
  *
  */
-public class Doctor extends Human {
-	private DoctorMode doctorMode;
-	private List<DoctorDoorPoint> doorPoints;
+public class Doctor extends Human implements Steppable {
+	public static final int RADIUS_OF_KNOWLEDGE = 15;
+	
+	private static final DoctorMode[] MODES = DoctorMode.values();
+	
+	private DoorKnowledge doorKnowledge;
 	private int followers;
 	private double charisma;
     private GridPoint lastPointMovedTowards;
@@ -50,20 +52,22 @@ public class Doctor extends Human {
     /**
 	 * Constructor for Doctor agent
 	 * @param space The continuous space in which the agent is located
-	 * @param grid The grid in which the agent is located
+	 * @param floor Floor in which the agent is located
+	 * @param hospital The shared state of the hospital environment
 	 * @param meanCharisma The mean charisma level for all doctors
 	 * @param stdCharisma The standard deviation of charisma for all doctors
 	 * @param random An RNG to set this instance's charisma
 	 */
-    public Doctor(ContinuousSpace<Object> space, Grid<Object> grid, double meanCharisma, double stdCharisma, Random random) {
+    public Doctor(ContinuousSpace<Object> space, Floor floor, Hospital hospital, double meanCharisma, double stdCharisma, Random random) {
         this.setSpace(space);
-        this.setGrid(grid);
+        this.setFloor(floor);
+        this.setHospital(hospital);
         this.setDead(false);
-        this.setRadiusOfKnowledge(15);
-        this.doorPoints = new ArrayList<>();
+        this.setRadiusOfKnowledge(RADIUS_OF_KNOWLEDGE);
+        this.doorKnowledge = hospital.newDoorKnowledge();
         this.followers = 0;
         this.charisma = getStartingCharisma(meanCharisma, stdCharisma, random);
-        this.doctorMode = DoctorMode.DOOR_SEEK;
+        setMode(DoctorMode.DOOR_SEEK);
     }
     
     private double getStartingCharisma(double meanCharisma, double stdCharisma, Random random) {
@@ -82,32 +86,68 @@ public class Doctor extends Human {
     
     /**
 	 * Adds a door to the doctor's knowledge
-	 * @param doorPoint Point where the door is located
+	 * @param door The door to add
+	 * @param status Status of the door
 	 */
-    public void addDoor(NdPoint doorPoint, DoorPointEnum status) {
+    public void addDoor(Door door, DoorPointEnum status) {
         double ticks = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-        DoctorDoorPoint ddp = new DoctorDoorPoint(doorPoint, status, ticks);
-        this.doorPoints.add(ddp);
+        this.doorKnowledge.update(door.getId(), status, ticks);
     }
     
     /**
-	 * Scheduled method to move a doctor if they are still alive
+	 * Move a doctor if they are still alive, called every tick
+	 * while the doctor is active
+	 * Runs the same phases, in the same order, that the systems execution
+	 * mode runs over every doctor at once
 	 */
-    @ScheduledMethod(start = 1, interval = 1)
-    public void run() {
+    @Override
+    public void step() {
+        decide();
+        act();
+    }
+    
+    /**
+     * Decide whether to escape, otherwise update the doctor's knowledge
+     * of the doors it can see
+     */
+    public void decide() {
         if (!isDead()) {
             if(shouldExit()) {
-                this.doctorMode = DoctorMode.ESCAPE;
-                moveTowardsDoor();
+                setMode(DoctorMode.ESCAPE);
             }
             else {
                 updateDoorKnowledge();
-                exchangeInformationWithDoctors();
-                if (doctorMode == DoctorMode.PATIENT_SEEK) {
-                    findPatients();
-                } else {
-                    moveTowardsDoor();
-                }
+            }
+        }
+    }
+    
+    /**
+     * Look for patients or move towards a door depending on the doctor's mode
+     */
+    public void act() {
+        if (!isDead()) {
+            if (getMode() == DoctorMode.PATIENT_SEEK) {
+                findPatients();
+            } else {
+                moveTowardsDoor();
+            }
+            
+            // While deferred the queue is joined on commit instead
+            if (!this.getStore().isDeferring()) {
+                joinExitQueue();
+            }
+        }
+    }
+    
+    /**
+     * An escaping doctor already next to a door does not move, so it has
+     * to join the door's queue itself
+     */
+    private void joinExitQueue() {
+        if (!isDead() && getMode() == DoctorMode.ESCAPE) {
+            GridPoint pt = this.getFloor().getLocation(this);
+            if (pt != null) {
+                this.getHospital().getExitArrivals().arrive(this, pt);
             }
         }
     }
@@ -120,26 +160,15 @@ public class Doctor extends Human {
         return false;
     }
     
-    private Boolean isDoorInRadius(int radius) {
-        Boolean doorIsPresent = false;
-        GridPoint location = this.getGrid().getLocation(this);
-        GridCellNgh<Door> nghCreator = new GridCellNgh<Door>(this.getGrid(), location, Door.class, radius, radius);
-        List<GridCell<Door>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        for (GridCell<Door> cell : gridCells) {
-            if (cell.size() > 0) {
-                return true;
-            }
-        }
-
-        return doorIsPresent;
+    private boolean isDoorInRadius(int radius) {
+        GridPoint location = this.getFloor().getLocation(this);
+        return GridQuery.any(this.getFloor(), location, radius, Door.class);
     }
     
     private int findNumberOfUnblockedDoors() {
         int num = 0;
-        for(DoctorDoorPoint door: doorPoints) {
-            if(door.getStatus() != DoorPointEnum.BLOCKED) {
+        for(int door = 0; door < doorKnowledge.getDoorCount(); door++) {
+            if(doorKnowledge.isKnown(door) && doorKnowledge.getStatus(door) != DoorPointEnum.BLOCKED) {
                 num++;
             }
         }
@@ -166,7 +195,7 @@ public class Doctor extends Human {
 	 * Move towards a random point
 	 */
     private void moveRandomly() {
-        GridPoint pt = this.getGrid().getLocation(this);
+        GridPoint pt = this.getFloor().getLocation(this);
 
         List<Integer> options = new ArrayList<Integer>();
         options.add(0);
@@ -192,53 +221,27 @@ public class Doctor extends Human {
         }
     }
     
-    /**
-	 * Exchanges information of doors with other doctors
-	 * in this doctor's neighborhood
-	 */
-    private void exchangeInformationWithDoctors() {
-        List<Doctor> doctorsInRadius = super.findDoctorsInRadius();
-        for(Doctor doc : doctorsInRadius) {
-            for(DoctorDoorPoint door : doc.doorPoints) {
-                Boolean haveKnowledgeOfDoor = false;
-                for(DoctorDoorPoint myDoor: this.doorPoints) {
-                    if (myDoor.getPoint() == door.getPoint()) {
-                        if (myDoor.getLastVisitedTime() < door.getLastVisitedTime()) {
-                            myDoor.setStatus(door.getStatus());
-                            myDoor.setLastVisitedtime(door.getLastVisitedTime());
-                        }
-                        haveKnowledgeOfDoor = true;
-                    }
-                }
-                
-                if (!haveKnowledgeOfDoor) {
-                    this.doorPoints.add(door);
-                }
-            }
-        }
-    }
-
     /**
 	 * Move towards a the closest available (unblocked and not overcrowded)
 	 * door if leading patients
 	 */
     private void moveTowardsDoor() {
-        Pair<Double, GridPoint> distancePointPair = findClosestAvailableDoor();
+        Pair<Double, Door> distanceDoorPair = findClosestAvailableDoor();
         
-        double closestDoorDistance = distancePointPair.getKey();
-        GridPoint closestDoorPoint = distancePointPair.getValue();
+        double closestDoorDistance = distanceDoorPair.getKey();
+        Door closestDoor = distanceDoorPair.getValue();
         
         if (closestDoorDistance < 3) {
             if(isGasInRadius(5)) {
-                doctorMode = DoctorMode.ESCAPE;
+                setMode(DoctorMode.ESCAPE);
             }
             else {
-                doctorMode = DoctorMode.PATIENT_SEEK;
+                setMode(DoctorMode.PATIENT_SEEK);
             }
         }
         
-        if (closestDoorPoint != null) {
-            moveTowards(closestDoorPoint);
+        if (closestDoor != null) {
+            navigateTo(closestDoor);
         } else {
             this.kill();
         }
@@ -250,19 +253,8 @@ public class Doctor extends Human {
      * @return Where gas is near the door
      */
     private boolean isGasInRadius(int radius) {
-        Boolean gasIsPresent = false;
-        GridPoint location = this.getGrid().getLocation(this);
-        GridCellNgh<GasParticle> nghCreator = new GridCellNgh<GasParticle>(this.getGrid(), location, GasParticle.class, radius, radius);
-        List<GridCell<GasParticle>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        for (GridCell<GasParticle> cell : gridCells) {
-            if (cell.size() > 0) {
-                return true;
-            }
-        }
-
-        return gasIsPresent;
+        GridPoint location = this.getFloor().getLocation(this);
+        return this.getGasField().isGasInRadius(location, radius);
     }
 
     /**
@@ -273,37 +265,26 @@ public class Doctor extends Human {
     private void updateDoorKnowledge() {
         List<Door> doorsInRadius = findDoorsInRadius();
 
+        DoorStatusBoard board = this.getHospital().getDoorStatusBoard();
+        double ticks = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+
         for(Door door: doorsInRadius) 
         {
-            GridPoint gridLocation = this.getGrid().getLocation(door);
-            NdPoint location = new NdPoint(gridLocation.getX(), gridLocation.getY());
-            DoctorDoorPoint targetDoor = null;
-            
-            //Check if door is in list of known doors
-            for(DoctorDoorPoint doorPoint: this.doorPoints) 
-            {
-                if (doorPoint.getPoint().getX() == location.getX()
-                    && doorPoint.getPoint().getY() == location.getY()) {
-                    targetDoor = doorPoint;
-                }
-            }
-            double ticks = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
-            
             //door is not in list of known doors
-            if (targetDoor == null) {
-                targetDoor = new DoctorDoorPoint(location, DoorPointEnum.AVAILABLE, ticks);
-                this.doorPoints.add(targetDoor);
+            DoorPointEnum status = DoorPointEnum.AVAILABLE;
+            if (doorKnowledge.isKnown(door.getId())) {
+                status = doorKnowledge.getStatus(door.getId());
             }
             
-            if (this.isDoorBlocked(door)) 
+            if (board.isBlocked(door)) 
             {
-                targetDoor.setStatus(DoorPointEnum.BLOCKED);
+                status = DoorPointEnum.BLOCKED;
             }
-            else if (this.isDoorOvercrowded(door)) 
+            else if (board.isOvercrowded(door)) 
             {
-                targetDoor.setStatus(DoorPointEnum.OVERCROWDED);
+                status = DoorPointEnum.OVERCROWDED;
             }
-            targetDoor.setLastVisitedtime(ticks);
+            doorKnowledge.update(door.getId(), status, ticks);
         }
     }
 
@@ -313,91 +294,25 @@ public class Doctor extends Human {
      * @return The list of doors near the doctor
      */
     private List<Door> findDoorsInRadius() {
-        GridPoint location = this.getGrid().getLocation(this);
-        GridCellNgh<Door> nghCreator = new GridCellNgh<Door>(this.getGrid(), location, Door.class, this.getRadiusOfKnowledge(), this.getRadiusOfKnowledge());
-        List<GridCell<Door>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        List<Door> doors = new ArrayList<Door>();
-        
-        for (GridCell<Door> cell : gridCells) {
-            if (cell.size() > 0) {
-                for(Door door : cell.items()) {
-                    doors.add(door);
-                }
-            }
-        }
-        
-        return doors;
-    }
-    
-    /**
-     * Checks if the number of patients near a door exceeds the threshold
-     * for that door
-     * @param door The door to check for overcrowding
-     * @return boolean indication whether the door is overcrowded
-     */
-    private boolean isDoorOvercrowded(Door door) {
-        GridPoint location = this.getGrid().getLocation(door);
-        GridCellNgh<Patient> nghCreator = new GridCellNgh<Patient>(this.getGrid(), location, Patient.class, door.getRadius(), door.getRadius());
-        List<GridCell<Patient>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        int numOfPatients = 0;
-        for (GridCell<Patient> cell : gridCells) {
-            if (cell.size() > 0) {
-                numOfPatients++;
-            }
-        }
-        
-        if (numOfPatients < door.getOvercrowdingThreshold()) {
-            return false;
-        }
-        return true;
-    }
-    
-    /**
-     * Checks if a door is blocked by gas by comparing the number of gas
-     * particles near the door to the blocking threshold
-     * @param door The door to check
-     * @return Whether the door is blocked
-     */
-    private boolean isDoorBlocked(Door door) {
-        GridPoint location = this.getGrid().getLocation(door);
-        GridCellNgh<GasParticle> nghCreator = new GridCellNgh<GasParticle>(this.getGrid(), location, GasParticle.class, door.getRadius(), door.getRadius());
-        List<GridCell<GasParticle>> gridCells = nghCreator.getNeighborhood(true);
-        SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-        
-        int numOfGasParticles = 0;
-        for (GridCell<GasParticle> cell : gridCells) {
-            if (cell.size() > 0) {
-                numOfGasParticles++;
-            }
-        }
-        
-        if (numOfGasParticles < door.getBlockedThreshold()) {
-            return false;
-        }
-        
-        return true;
+        GridPoint location = this.getFloor().getLocation(this);
+        return this.getHospital().getQueryCache().query(location, this.getRadiusOfKnowledge(), Door.class);
     }
     
     /**
 	 * Finds the closest available door to this doctor
-	 * @return A key-value pair of the distance and the grid point corresponding to the door
+	 * @return A key-value pair of the distance to the door and the door
 	 */
-    private Pair<Double, GridPoint> findClosestAvailableDoor() {
-        GridPoint pt = this.getGrid().getLocation(this);
+    private Pair<Double, Door> findClosestAvailableDoor() {
+        GridPoint pt = this.getFloor().getLocation(this);
         
         double closestDoorDistance = Double.POSITIVE_INFINITY;
-        NdPoint closestDoor = null;
-        for (DoctorDoorPoint doorPoint : doorPoints) {
-            double distance = Math.sqrt(Math.pow(doorPoint.getPoint().getX() - pt.getX(), 2)
-                    + Math.pow(doorPoint.getPoint().getY() - pt.getY(), 2));
-            if (distance < closestDoorDistance && doorPoint.getStatus() == DoorPointEnum.AVAILABLE) {
-                closestDoor = doorPoint.getPoint();
-                closestDoorDistance = distance;
-            }
+        Door closestDoor = null;
+        int door = this.getHospital().getDoorIndex().nearest(pt, d -> doorKnowledge.getStatus(d) == DoorPointEnum.AVAILABLE);
+        if (door != -1) {
+            GridPoint closestDoorPoint = this.getHospital().getDoorPoint(door);
+            closestDoor = this.getHospital().getDoor(door);
+            closestDoorDistance = Math.sqrt(Math.pow(closestDoorPoint.getX() - pt.getX(), 2)
+                    + Math.pow(closestDoorPoint.getY() - pt.getY(), 2));
         }
         
         //No available doors, check overcrowded ones
@@ -405,34 +320,20 @@ public class Doctor extends Human {
             closestDoor = findClosestOvercrowdedDoor();
         }
         
-        //All doors are blocked
-        if (closestDoor == null) {
-            
-        }
-        
-        GridPoint closestDoorPoint = Utility.ndPointToGridPoint(closestDoor);
-        
-        return new Pair<Double, GridPoint>(closestDoorDistance, closestDoorPoint);
+        return new Pair<Double, Door>(closestDoorDistance, closestDoor);
     }
     
     /**
      * Look for a door that was previously overcrowded and attempt to use it
-     * @return The location of the door to use
+     * @return The door to use
      */
-    private NdPoint findClosestOvercrowdedDoor() {
-        NdPoint closestDoor = null;
-        double closestDistance = Double.POSITIVE_INFINITY;
-        GridPoint pt = this.getGrid().getLocation(this);
-        
-        for(DoctorDoorPoint door : doorPoints) {
-            GridPoint doorPoint = Utility.ndPointToGridPoint(door.getPoint());
-            double distance = this.getGrid().getDistance(doorPoint, pt);
-            if (distance < closestDistance) {
-                closestDoor = door.getPoint();
-            }
+    private Door findClosestOvercrowdedDoor() {
+        GridPoint pt = this.getFloor().getLocation(this);
+        int door = this.getHospital().getDoorIndex().nearest(pt, doorKnowledge::isKnown);
+        if (door == -1) {
+            return null;
         }
-        
-        return closestDoor;
+        return this.getHospital().getDoor(door);
     }
 
     /**
@@ -441,7 +342,7 @@ public class Doctor extends Human {
 	 */
 	public void startFollowing() {
 		this.followers++;
-		doctorMode = DoctorMode.DOOR_SEEK;
+		setMode(DoctorMode.DOOR_SEEK);
 	}
 	
 	/**
@@ -451,7 +352,7 @@ public class Doctor extends Human {
 	public void stopFollowing() {
 		this.followers--;
 		if (followers <= 0) {
-			doctorMode = DoctorMode.PATIENT_SEEK;
+			setMode(DoctorMode.PATIENT_SEEK);
 		}
 	}
 	
@@ -462,6 +363,10 @@ public class Doctor extends Human {
 		return this.followers;
 	}
 
+    public DoorKnowledge getDoorKnowledge() {
+        return this.doorKnowledge;
+    }
+
     public double getCharisma() {
         return this.charisma;
     }
@@ -470,31 +375,61 @@ public class Doctor extends Human {
         this.charisma = charisma;
     }
 
+    /**
+     * Apply the doctor's move or death, as recorded while they were deferred,
+     * then join a door's exit queue if the doctor survived next to one
+     */
+    @Override
+    public void commit() {
+        commitMove();
+        if (commitKill()) {
+            leaveBody();
+        } else {
+            joinExitQueue();
+        }
+    }
+
     /**
      * Kill a doctor by removing it from the context
      */
     public void kill() {
-    	super.kill();
+        if (!deferKill()) {
+            super.kill();
+            leaveBody();
+        }
+    }
+    
+    /**
+     * Replace the doctor with a body, or end the run if it was the last
+     * human and the hospital is not part of a campus
+     */
+    private void leaveBody() {
     	Context<Object> context = ContextUtils.getContext(this);
-    	int humanCount = context.getObjects(Doctor.class).size() + context.getObjects(Patient.class).size();
+    	int humanCount = this.getHospital().getHumanCount();
     	
-    	if (humanCount > 1) {
-	    	GridPoint pt = this.getGrid().getLocation(this);
+    	if (humanCount > 1 || !this.getHospital().endsRunWhenEmpty()) {
+	    	GridPoint pt = this.getFloor().getLocation(this);
 	    	NdPoint spacePt = new NdPoint(pt.getX(), pt.getY());
 	
 			DeadDoctor deadDoctor = new DeadDoctor();
 			context.add(deadDoctor);
 			this.getSpace().moveTo(deadDoctor, spacePt.getX(), spacePt.getY());
-			this.getGrid().moveTo(deadDoctor, pt.getX(), pt.getY());
+			this.getFloor().moveTo(deadDoctor, pt.getX(), pt.getY());
 			
 			context.remove(this);
+			this.getHospital().agentMoved(this, pt, null);
+			this.getHospital().agentMoved(deadDoctor, null, pt);
     	} else {
     		RunEnvironment.getInstance().endRun();
     	}
     }
     
     public DoctorMode getMode() {
-        return this.doctorMode;
+        return MODES[this.getStore().getMode(this.getAgentId())];
+    }
+    
+    private void setMode(DoctorMode mode) {
+        this.getStore().setMode(this.getAgentId(), mode.ordinal());
     }
 	
 	/**
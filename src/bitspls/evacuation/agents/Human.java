@@ -1,32 +1,36 @@
 package bitspls.evacuation.agents;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.SplittableRandom;
 
-import repast.simphony.query.space.grid.GridCell;
-import repast.simphony.query.space.grid.GridCellNgh;
+import bitspls.evacuation.Door;
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.engine.environment.RunEnvironment;
 import repast.simphony.random.RandomHelper;
 import repast.simphony.space.SpatialMath;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.space.grid.Grid;
 import repast.simphony.space.grid.GridPoint;
-import repast.simphony.util.SimUtilities;
 
 /**
  * Abstract base class to represent all human agents in the system
  * 
- * Tracks variables (dead boolean, grid, space, radius of knowledge, etc.)
- * common to all types of human agents and provides methods for moving
+ * Tracks variables (grid, space, radius of knowledge, etc.) common to all
+ * types of human agents and provides methods for moving
+ * Per-tick state (dead, queued, position, etc.) lives in the hospital's
+ * agent store under the agent's id
  * @author Bits Please
  */
 public abstract class Human {
 	private static final double MOVEMENT_DISTANCE = 1;
+	private static final int GAS_AVOIDANCE_RADIUS = 3;
 	
-	private boolean dead;
-	private boolean isGoalSeekState = true;
 	private ContinuousSpace<Object> space;
-	private Grid<Object> grid;
+	private Floor floor;
+	private Hospital hospital;
+	private AgentStore store;
+	private int agentId = AgentStore.NONE;
 	private int radiusOfKnowledge;
 	
 	/**
@@ -36,22 +40,22 @@ public abstract class Human {
 	 * @param pt Point to move towards
 	 */
 	protected void moveTowards(GridPoint pt) {
-		if (pt != null && !pt.equals(grid.getLocation(this))) {
+		if (pt != null && !pt.equals(floor.getLocation(this))) {
 			NdPoint myPoint = space.getLocation(this);
 			NdPoint otherPoint = new NdPoint(pt.getX(), pt.getY());
 			double angle = SpatialMath.calcAngleFor2DMovement(space, myPoint, otherPoint);
 			
 			GridPoint gasToAvoid = gasInWay(angle);
 			
-			if (isGoalSeekState) {
+			if (isGoalSeekState()) {
 				if (gasToAvoid != null) {
-					isGoalSeekState = false;
+					setGoalSeekState(false);
 				}
 			}
 			
-			if (!isGoalSeekState) {
+			if (!isGoalSeekState()) {
 				if (gasToAvoid == null) {
-					isGoalSeekState = true;
+					setGoalSeekState(true);
 				} else {
 					NdPoint point = new NdPoint(gasToAvoid.getX(), gasToAvoid.getY());
 					angle = SpatialMath.calcAngleFor2DMovement(space, myPoint, point);
@@ -67,182 +71,176 @@ public abstract class Human {
 		}
 	}
 	
+	/**
+	 * Navigate towards a door by following the door's flow field, which
+	 * routes around the gas cloud
+	 * Falls back to moveTowards if there is no route from the current cell
+	 * @param door Door to move towards
+	 */
+	protected void navigateTo(Door door) {
+		GridPoint pt = floor.getLocation(this);
+		GridPoint doorPt = this.hospital.getDoorPoint(door.getId());
+		if (doorPt == null || doorPt.equals(pt)) {
+			return;
+		}
+		
+		GridPoint next = this.hospital.getRoutes().getField(door).nextStep(pt);
+		if (next == null) {
+			moveTowards(doorPt);
+			return;
+		}
+		
+		// Aim for the center of the next cell
+		NdPoint myPoint = space.getLocation(this);
+		double angle = Math.atan2(next.getY() + 0.5 - myPoint.getY(), next.getX() + 0.5 - myPoint.getX());
+		setGoalSeekState(true);
+		move(angle);
+	}
+	
 	/**
 	 * Move along a given angle
 	 * @param angle Angle to move the agent along
 	 */
 	protected void move(double angle) {
+		if (store.isDeferring()) {
+			store.deferMove(agentId, angle);
+			return;
+		}
+		
+		GridPoint from = floor.getLocation(this);
 		space.moveByVector(this, MOVEMENT_DISTANCE, angle, 0);
 		NdPoint point = space.getLocation(this);
-		grid.moveTo(this, (int)point.getX(), (int)point.getY());
+		store.moveTo(agentId, point.getX(), point.getY());
+		
+		GridPoint to = floor.getLocation(this);
+		if (!to.equals(from)) {
+			hospital.agentMoved(this, from, to);
+		}
 	}
 	
 	/**
-	 * Find a point that does not contain any gas agents
-	 * @param pt Point to center the search around
-	 * @return GridPoint that has no gas particles present
+	 * Apply what the agent did while the agent store was deferring
+	 * Called once per agent, in a fixed order, after every agent has acted
 	 */
-	protected GridPoint findLeastGasPoint(GridPoint pt) {
-		GridCellNgh<GasParticle> nghCreator = new GridCellNgh<GasParticle>(this.getGrid(), pt, GasParticle.class, this.getRadiusOfKnowledge(), this.getRadiusOfKnowledge());
-		List<GridCell<GasParticle>> gridCells = nghCreator.getNeighborhood(true);
-		SimUtilities.shuffle(gridCells, RandomHelper.getUniform());
-		
-		GridPoint pointWithLeastGas = null;
-		for (GridCell<GasParticle> cell : gridCells) {
-			if (cell.size() == 0) {
-				pointWithLeastGas = cell.getPoint();
-			}
+	public void commit() {
+		commitMove();
+	}
+	
+	/**
+	 * Make the move recorded while moves were deferred, if there is one
+	 * @return Whether the agent moved
+	 */
+	protected boolean commitMove() {
+		if (!store.takeFlag(agentId, AgentStore.MOVE_PENDING)) {
+			return false;
 		}
-		return pointWithLeastGas;
+		move(store.getPendingAngle(agentId));
+		return true;
 	}
 	
 	/**
-	 * Find any doctors in an agent's neighborhood
-	 * @return List of doctors in an agent's neighborhood
+	 * Mark the agent dead if it died while deaths were deferred
+	 * @return Whether the agent died and still has to be removed
 	 */
-	protected List<Doctor> findDoctorsInRadius() {
-		GridPoint currentLocation = this.getGrid().getLocation(this);
-		GridCellNgh<Doctor> doctorNghCreator = new GridCellNgh<Doctor>(this.getGrid(), currentLocation, Doctor.class, this.getRadiusOfKnowledge(), this.getRadiusOfKnowledge());
-		List<GridCell<Doctor>> doctorGridCells = doctorNghCreator.getNeighborhood(true);
-		SimUtilities.shuffle(doctorGridCells, RandomHelper.getUniform());
-		
-		List<Doctor> doctorAgents = new ArrayList<Doctor>();
-		for (GridCell<Doctor> cell : doctorGridCells) {
-			if (cell.size() > 0) {
-				for (Doctor doc : cell.items()) {
-					doctorAgents.add(doc);
-				}
-			}
+	protected boolean commitKill() {
+		if (!store.takeFlag(agentId, AgentStore.KILL_PENDING)) {
+			return false;
 		}
-		
-		return doctorAgents;
+		setDead(true);
+		return true;
 	}
 	
 	/**
-	 * Find the "best" gas point, i.e. the most extreme gas point in the way
-	 * of an agent's movement path
-	 * Used to keep human agents navigating towards a goal (ex. door), while
-	 * avoiding obstacles (ex. gas cloud)
-	 * @param angleB Angle at which the agent is attempting to move
-	 * @return GridPoint location of the optimal gas particle to avoid
+	 * Record a death to finish when the agent commits, if deaths are deferred
+	 * The agent is not marked dead until then, so the other agents acting in
+	 * the same tick still see it alive
+	 * @return Whether the death was deferred
 	 */
-	private GridPoint gasInWay(double angleB) {
-		GridPoint pt = this.getGrid().getLocation(this);
-		
-		GridCellNgh<GasParticle> nghCreator = new GridCellNgh<GasParticle>(this.getGrid(), pt, GasParticle.class, 3, 3);		
-		List<GridCell<GasParticle>> gridCells = nghCreator.getNeighborhood(true);
-		
-		int currentBestX = -1;
-		int currentBestY = -1;
-		GridPoint bestGasPoint = null;
-		GridPoint currentGasPoint;
-		for (GridCell<GasParticle> cell : gridCells) {
-			if (cell.size() > 0) {
-				currentGasPoint = cell.getPoint();
-				int currentX = currentGasPoint.getX();
-				int currentY = currentGasPoint.getY();
-			
-				/**
-				 * Imagining a circle of r=3 around the agent, split it into 8 45-degree segments
-				 */
-				if (angleB >= 0 && angleB <= Math.PI / 8) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentY, currentX, currentBestY, currentBestX, false, true)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI / 8 && angleB <= Math.PI / 4) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentY, currentX, currentBestY, currentBestX, false, true)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI / 4 && angleB <= Math.PI * 3 / 4) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentX, currentY, currentBestX, currentBestY, true, true)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI * 3 / 4 && angleB <= Math.PI) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentX, currentY, currentBestX,
-							currentBestY, true, true)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI && angleB <= Math.PI * 5 / 4) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentY, currentX, currentBestY, currentBestX, true, false)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI * 5 / 4 && angleB <= Math.PI * 3 / 2) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentY, currentX, currentBestY,
-							currentBestX, true, false)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else if (angleB > Math.PI * 3 / 2 && angleB <= Math.PI * 7 / 4) {
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentX, currentY, currentBestX, currentBestY, false, false)) {
-						bestGasPoint = currentGasPoint;
-					}
-				} else {			
-					if (checkIfGasInBounds(currentGasPoint, pt, angleB, currentX, currentY, currentBestX, currentBestY, false, false)) {
-						bestGasPoint = currentGasPoint;
-					}
-				}
-			}
+	protected boolean deferKill() {
+		if (!store.isDeferring()) {
+			return false;
 		}
-		
-		return bestGasPoint;
+		store.setFlag(agentId, AgentStore.KILL_PENDING, true);
+		return true;
 	}
 	
 	/**
-	 * Checks to see if there is a gas agent near the path to
-	 * the door from the doctor's current location
-	 * @param gas The gas point to compare to the bounds
-	 * @param human The location of the doctor
-	 * @param angleTowardsDoor The angle the patient must travel on to get to the door
-	 * @param verticalLocation The relative vertical location to the doctor
-	 * @param horizontalLocation The relative horizontal location to the doctor
-	 * @param bestVerticalLocation The current closest gas's vertical location
-	 * @param bestHorizontalLocation The current closest gas's horizontal location
-	 * @param maximizeVerticalLocation Indicates if we want the max or min vertial
-	 * location of the gas particles as our best particle
-	 * @param maximizeHorizontalLocation highLength Indicates if we want the max or
-	 * min horizontal location of the gas particles as our best particle
-	 * @return Whether or not the gas was in the way of the doctor's current path
+	 * Find a point that does not contain any gas
+	 * @param pt Point to center the search around
+	 * @return GridPoint that has no gas present
 	 */
-	private boolean checkIfGasInBounds(GridPoint gas, GridPoint human, double angleTowardsDoor,
-			int verticalLocation, int horizontalLocation, int bestVerticalLocation,
-			int bestHorizontalLocation, boolean maximizeVerticalLocation,
-			boolean maximizeHorizontalLocation) {
-		
-		boolean isInBounds = false;
-		
-		NdPoint humanPoint = new NdPoint(human.getX(), human.getY());
-		NdPoint gasPoint = new NdPoint(gas.getX(), gas.getY());
-		double angle = SpatialMath.calcAngleFor2DMovement(space, humanPoint, gasPoint);
-		
-		if (angle >= angleTowardsDoor - (Math.PI / 2) && angle <= angleTowardsDoor + (Math.PI / 2)) {
-			 
-			if (maximizeVerticalLocation && (verticalLocation > bestVerticalLocation)
-					|| (!maximizeVerticalLocation && verticalLocation < bestVerticalLocation)) {
-				isInBounds = true;
-			} else if (verticalLocation == bestVerticalLocation
-					&& (maximizeHorizontalLocation && horizontalLocation > bestHorizontalLocation
-							|| (!maximizeHorizontalLocation && horizontalLocation < bestHorizontalLocation))) {
-				isInBounds = true;
-			} else if (bestVerticalLocation == -1) {
-				isInBounds = true;
-			}
+	protected GridPoint findLeastGasPoint(GridPoint pt) {
+		if (store.isDeferring()) {
+			// Agents may be acting on several threads, which the shared Repast RNG does not allow
+			return this.getGasField().findClearPoint(pt, this.getRadiusOfKnowledge(), drawStream());
 		}
-		
-		return isInBounds;
+		return this.getGasField().findClearPoint(pt, this.getRadiusOfKnowledge());
+	}
+	
+	/**
+	 * Create an RNG for this agent's draws in the current tick
+	 * It is seeded from the run seed, the tick and the agent id only, so a
+	 * seeded run draws the same numbers whichever thread the agent acts on
+	 * @return RNG for the agent's draws in this tick
+	 */
+	private SplittableRandom drawStream() {
+		long tick = (long) RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		long seed = RandomHelper.getSeed();
+		seed = seed * 0x9E3779B97F4A7C15L + tick;
+		seed = seed * 0x9E3779B97F4A7C15L + agentId;
+		return new SplittableRandom(seed);
+	}
+	
+	/**
+	 * Find the gas point in the way of an agent's movement path, i.e. the
+	 * gas within GAS_AVOIDANCE_RADIUS nearest to the path ahead of the agent
+	 * Used to keep human agents navigating towards a goal (ex. door), while
+	 * avoiding obstacles (ex. gas cloud)
+	 * @param angleB Angle at which the agent is attempting to move
+	 * @return GridPoint location of the gas cell to avoid, or null if the path is clear
+	 */
+	private GridPoint gasInWay(double angleB) {
+		GridPoint pt = this.getFloor().getLocation(this);
+		return this.getGasField().findNearestGasAhead(pt, GAS_AVOIDANCE_RADIUS, angleB);
 	}
 	
 	/*
 	 * Getters & Setters
 	 */
 	public boolean isDead() {
-		return this.dead;
+		return store.hasFlag(agentId, AgentStore.DEAD);
+	}
+	
+	public boolean isQueued() {
+		return store.hasFlag(agentId, AgentStore.QUEUED);
+	}
+	
+	public void setQueued(boolean queued) {
+		store.setFlag(agentId, AgentStore.QUEUED, queued);
+	}
+	
+	public boolean hasMigrated() {
+		return store.hasFlag(agentId, AgentStore.MIGRATED);
+	}
+	
+	public void setMigrated(boolean migrated) {
+		store.setFlag(agentId, AgentStore.MIGRATED, migrated);
 	}
 	
 	protected void setDead(boolean dead) {
-		this.dead = dead;
+		store.setFlag(agentId, AgentStore.DEAD, dead);
 	}
 	
 	protected void kill() {
-		this.dead = true;
+		setDead(true);
+	}
+	
+	private boolean isGoalSeekState() {
+		return store.hasFlag(agentId, AgentStore.GOAL_SEEK);
+	}
+	
+	private void setGoalSeekState(boolean goalSeek) {
+		store.setFlag(agentId, AgentStore.GOAL_SEEK, goalSeek);
 	}
 	
 	protected ContinuousSpace<Object> getSpace() {
@@ -253,12 +251,38 @@ public abstract class Human {
 		this.space = space;
 	}
 	
-	protected Grid<Object> getGrid() {
-		return this.grid;
+	protected Floor getFloor() {
+		return this.floor;
+	}
+	
+	protected void setFloor(Floor floor) {
+		this.floor = floor;
+	}
+	
+	protected Hospital getHospital() {
+		return this.hospital;
+	}
+	
+	/**
+	 * Set the hospital the agent is in and give the agent a slot in its agent store
+	 * @param hospital Shared state of the hospital environment
+	 */
+	protected void setHospital(Hospital hospital) {
+		this.hospital = hospital;
+		this.store = hospital.getAgents();
+		this.agentId = store.add(this);
+	}
+	
+	protected AgentStore getStore() {
+		return this.store;
+	}
+	
+	public int getAgentId() {
+		return this.agentId;
 	}
 	
-	protected void setGrid(Grid<Object> grid) {
-		this.grid = grid;
+	protected GasField getGasField() {
+		return this.hospital.getGasField();
 	}
 	
 	protected int getRadiusOfKnowledge() {
@@ -1,26 +1,22 @@
 package bitspls.evacuation.agents;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
 
 import bitspls.evacuation.Door;
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.schedule.Steppable;
 import bitspls.evacuation.agents.Doctor;
 import bitspls.evacuation.agents.Human;
+import bitspls.evacuation.space.Floor;
 import repast.simphony.context.Context;
 import repast.simphony.engine.environment.RunEnvironment;
-import repast.simphony.engine.schedule.ScheduledMethod;
 import repast.simphony.parameter.Parameters;
-import repast.simphony.query.space.grid.GridCell;
-import repast.simphony.query.space.grid.GridCellNgh;
-import repast.simphony.random.RandomHelper;
 import repast.simphony.space.continuous.ContinuousSpace;
 import repast.simphony.space.continuous.NdPoint;
-import repast.simphony.space.grid.Grid;
-import repast.simphony.space.grid.GridDimensions;
 import repast.simphony.space.grid.GridPoint;
 import repast.simphony.util.ContextUtils;
-import repast.simphony.util.SimUtilities;
 
 /**
  * Class to model the Patient agent
@@ -33,38 +29,37 @@ import repast.simphony.util.SimUtilities;
  * @author Bits Please
  *
  */
-public class Patient extends Human {
-	private PatientMode movementMode;
-	private Doctor doctorToFollow;
+public class Patient extends Human implements Steppable {
+	public static final int RADIUS_OF_KNOWLEDGE = 10;
+	
+	private static final PatientMode[] MODES = PatientMode.values();
+	
 	private Door door;
-	private boolean exited;
-	private double panic;
 	private double patientPanicWeight;
-	private List<Doctor> blackListedDoctors;
+	private BitSet blackListedDoctors;	// by agent id, allocated on the first refusal
 	
 	/**
 	 * Constructor for Patient agent
 	 * @param space Continuous space the patient is located in
-	 * @param grid Grid the patient is located in
+	 * @param floor Floor the patient is located in
+	 * @param hospital Shared state of the hospital environment
 	 * @param patientPanicWeight Weighting factor for the effects of other patients' panic levels
 	 * @param gasPanicWeight Weighting factor for the effects of gas on panic
 	 * @param meanPanic Mean panic level for all patients
 	 * @param stdPanic Standard deviation of panic level for all patients
 	 * @param random RNG to set this instance's starting panic level
 	 */
-	public Patient(ContinuousSpace<Object> space, Grid<Object> grid, double patientPanicWeight, double meanPanic, double stdPanic, Random random) {
+	public Patient(ContinuousSpace<Object> space, Floor floor, Hospital hospital, double patientPanicWeight, double meanPanic, double stdPanic, Random random) {
 		this.setSpace(space);
-		this.setGrid(grid);
+		this.setFloor(floor);
+		this.setHospital(hospital);
 		this.setDead(false);
-		this.setRadiusOfKnowledge(10);
-		this.panic = getStartingPanic(meanPanic, stdPanic, random);
-		this.setPanic(panic);
+		this.setRadiusOfKnowledge(RADIUS_OF_KNOWLEDGE);
+		this.setPanic(getStartingPanic(meanPanic, stdPanic, random));
 		this.setPatientPanicWeight(patientPanicWeight);
-		this.movementMode = PatientMode.AVOID_GAS;
-		this.doctorToFollow = null;
+		this.setMovementMode(PatientMode.AVOID_GAS);
 		this.door = null;
-		this.exited = false;
-		this.blackListedDoctors = new ArrayList<Doctor>();
+		this.blackListedDoctors = null;
 	}
 	
 	private double getStartingPanic(double meanPanic, double stdPanic, Random random) {
@@ -82,62 +77,89 @@ public class Patient extends Human {
 	}
 	
 	/**
-	 * Move function that is scheduled for every tick to move
-	 * the patient if it is not dead
+	 * Move function that is called every tick while the patient is
+	 * active to move the patient if it is not dead
+	 * Runs the same phases, in the same order, that the systems execution
+	 * mode runs over every patient at once
 	 */
-	@ScheduledMethod(start = 1, interval = 1)
-	public void run() {
-		if (!isDead() && !this.exited) {
-			
-			/*
-			 * Panic level is re-evaluated based on the number and panic
-			 * level of other patients around and the amount and closeness
-			 * of gas to the patient
-			 */			
+	@Override
+	public void step() {
+		updatePanic();
+		chooseTarget();
+		moveToTarget();
+	}
+	
+	/**
+	 * Panic level is re-evaluated based on the number and panic
+	 * level of other patients around and the amount and closeness
+	 * of gas to the patient
+	 */
+	public void updatePanic() {
+		if (!isDead() && !hasExited()) {
 			this.setPanic(this.calculateNewPanicLevel());
-
-			/*
-			 * Follow a doctor in the area if available
-			 */
-			if (this.doctorToFollow == null || this.door != null) {
-				Doctor targetDoctor = findDoctorWithMaxCharisma();
-				if (targetDoctor != null && !this.blackListedDoctors.contains(targetDoctor)) 
+		}
+	}
+	
+	/**
+	 * Decide whether to follow a doctor or head for a door
+	 */
+	public void chooseTarget() {
+		if (isDead() || hasExited()) {
+			return;
+		}
+		
+		/*
+		 * Follow a doctor in the area if available
+		 */
+		if (getDoctorToFollow() == null || this.door != null) {
+			Doctor targetDoctor = findDoctorWithMaxCharisma();
+			if (targetDoctor != null && !isBlackListed(targetDoctor)) 
+			{
+				if(shouldFollowDoctorAgent(targetDoctor)) 
 				{
-					if(shouldFollowDoctorAgent(targetDoctor)) 
-					{
-						System.out.println("following doctor");
-						this.doctorToFollow = targetDoctor;
-						this.doctorToFollow.startFollowing();
-						this.movementMode = PatientMode.FOLLOW_DOCTOR;
-					}
-					else 
-					{
-						this.blackListedDoctors.add(targetDoctor);
-					}
+					setDoctorToFollow(targetDoctor);
+					follow(targetDoctor);
+					this.setMovementMode(PatientMode.FOLLOW_DOCTOR);
 				}
-			}
-			
-			/*
-			 * Look for doors in the area if the patient hasn't found one yet
-			 */
-			if (this.movementMode != PatientMode.APPROACH_DOOR) {
-				Door closestDoor = findClosestDoor();
-				if (closestDoor != null) {
-					this.door = closestDoor;
-					if (this.doctorToFollow != null) this.doctorToFollow.stopFollowing();
-					this.movementMode = PatientMode.APPROACH_DOOR;
+				else 
+				{
+					blackList(targetDoctor);
 				}
 			}
+		}
+		
+		/*
+		 * Look for doors in the area if the patient hasn't found one yet
+		 */
+		if (getMovementMode() != PatientMode.APPROACH_DOOR) {
+			Door closestDoor = findClosestDoor();
+			if (closestDoor != null) {
+				this.door = closestDoor;
+				if (getDoctorToFollow() != null) unfollow(getDoctorToFollow());
+				this.setMovementMode(PatientMode.APPROACH_DOOR);
+			}
+		}
+	}
+	
+	/**
+	 * Move towards the door, doctor or away from gas depending on the
+	 * movement mode
+	 */
+	public void moveToTarget() {
+		if (!isDead() && !hasExited()) {
 			determineNextAction(findNextPointToMoveTo());
 		}
 	}
 	
 	/**
 	 * If there are no valid points to move to (the patient is surrounded by gas)
-	 * the patient dies, otherwise they move towards that point
+	 * the patient dies, otherwise they move towards that point, following the
+	 * door's flow field when approaching a door
 	 */
 	private void determineNextAction(GridPoint pointToMoveTo) {
-		if (pointToMoveTo != null) {
+		if (pointToMoveTo != null && getMovementMode() == PatientMode.APPROACH_DOOR) {
+			navigateTo(this.door);
+		} else if (pointToMoveTo != null) {
 			moveTowards(pointToMoveTo);
 		} else {
 			this.kill();
@@ -149,15 +171,15 @@ public class Patient extends Human {
 	 * @return The best point to move towards
 	 */
 	private GridPoint findNextPointToMoveTo() {
-		GridPoint currentLocation = this.getGrid().getLocation(this);
+		GridPoint currentLocation = this.getFloor().getLocation(this);
 		GridPoint leastGasPoint = findLeastGasPoint(currentLocation);
 		GridPoint pointToMoveTo = null;
 		
 		// Move towards the door if available
-		if (this.movementMode == PatientMode.APPROACH_DOOR) {
-			pointToMoveTo = this.getGrid().getLocation(this.door);
-		} else if (this.movementMode == PatientMode.FOLLOW_DOCTOR && !this.doctorToFollow.isDead()) {  // follow the doctor if available
-			pointToMoveTo = this.getGrid().getLocation(this.doctorToFollow);
+		if (getMovementMode() == PatientMode.APPROACH_DOOR) {
+			pointToMoveTo = this.getFloor().getLocation(this.door);
+		} else if (getMovementMode() == PatientMode.FOLLOW_DOCTOR && !getDoctorToFollow().isDead()) {  // follow the doctor if available
+			pointToMoveTo = this.getFloor().getLocation(getDoctorToFollow());
 		} else if (leastGasPoint != null) { // otherwise, just avoid gas
 			pointToMoveTo = leastGasPoint;
 		}
@@ -171,16 +193,31 @@ public class Patient extends Human {
 	 */
 	protected void moveTowards(GridPoint pt) {
 		super.moveTowards(pt);
-		
-		if (this.door != null) {
-			GridPoint currentPt = this.getGrid().getLocation(this);
-			GridCellNgh<Door> doorNghCreator = new GridCellNgh<Door>(this.getGrid(), currentPt, Door.class, 0, 0);
-			List<GridCell<Door>> doorGridCells = doorNghCreator.getNeighborhood(true);
-			GridPoint doorPt = this.getGrid().getLocation(this.door);
-			if (doorGridCells.contains(doorPt)) {
-				this.exited = true;
-				this.doctorToFollow.stopFollowing();
-				this.doctorToFollow = null;
+		checkIfAtDoor();
+	}
+	
+	/**
+	 * Navigates the patient towards a door along the door's flow field
+	 * and causes the patient to wait by the door until it can exit
+	 */
+	protected void navigateTo(Door door) {
+		super.navigateTo(door);
+		checkIfAtDoor();
+	}
+	
+	/**
+	 * Marks the patient as exited once it reaches the door it was approaching
+	 * While moves are deferred the patient has not moved yet, so the check
+	 * waits until the patient commits
+	 */
+	private void checkIfAtDoor() {
+		if (this.door != null && !this.getStore().isDeferring()) {
+			GridPoint currentPt = this.getFloor().getLocation(this);
+			GridPoint doorPt = this.getFloor().getLocation(this.door);
+			if (currentPt.equals(doorPt)) {
+				this.getStore().setFlag(this.getAgentId(), AgentStore.EXITED, true);
+				if (getDoctorToFollow() != null) getDoctorToFollow().stopFollowing();
+				setDoctorToFollow(null);
 				this.door = null;
 			}
 		}
@@ -211,18 +248,13 @@ public class Patient extends Human {
 	/**
 	 * Calculate a new panic level based on the gas around a patient
 	 * and the magnitude of patient panic around a patient
+	 * Reads the panic field, which holds the average panic of each
+	 * neighborhood as of the start of the tick
 	 * @return new panic level
 	 */
 	public double calculateNewPanicLevel() {
-		List<Patient> patients = this.findPatientAgentsInRadiusOfKnowledge();
-		double totalPatientPanic = 0.0;
-		
-		for(Patient patient: patients) {
-			if (patient.getPanic() >= 0) {
-				totalPatientPanic += patient.getPanic();
-			}
-		}
-		return totalPatientPanic/patients.size();
+		GridPoint location = getFloor().getLocation(this);
+		return getHospital().getPanicField().getAveragePanic(location);
 	}
 	
 	/**
@@ -231,21 +263,17 @@ public class Patient extends Human {
 	 * @return The closest door to the patient within it's radius of knowledge
 	 */
 	private Door findClosestDoor() {
-		GridPoint currentLocation = this.getGrid().getLocation(this);
-		GridCellNgh<Door> doorNghCreator = new GridCellNgh<Door>(this.getGrid(), currentLocation, Door.class, this.getRadiusOfKnowledge(), this.getRadiusOfKnowledge());
-		List<GridCell<Door>> doorGridCells = doorNghCreator.getNeighborhood(true);
+		GridPoint currentLocation = this.getFloor().getLocation(this);
+		List<Door> doors = getHospital().getQueryCache().query(currentLocation, this.getRadiusOfKnowledge(), Door.class);
 		
 		double minimumDistance = Double.POSITIVE_INFINITY;
 		Door closestDoor = null;
 		
-		for (GridCell<Door> cell : doorGridCells) {
-			if (cell.size() > 0) {
-				for (Door door : cell.items()) {
-					double distance = getGrid().getDistance(currentLocation, getGrid().getLocation(door));	
-					if (distance < minimumDistance) {
-						closestDoor = door;
-					}
-				}
+		for (Door door : doors) {
+			double distance = getFloor().getDistance(currentLocation, getFloor().getLocation(door));
+			if (distance < minimumDistance) {
+				closestDoor = door;
+				minimumDistance = distance;
 			}
 		}
 		
@@ -255,62 +283,55 @@ public class Patient extends Human {
 	/**
 	 * Finds the best doctor to follow (the doctor with highest charisma)
 	 * inside of the patient's radius of knowledge
+	 * Reads the charisma field; whether the doctor is blacklisted is
+	 * left to the caller
 	 * @return The best doctor to follow inside a neighborhood
 	 */
 	private Doctor findDoctorWithMaxCharisma() {
-		GridPoint currentLocation = this.getGrid().getLocation(this);
-		GridCellNgh<Doctor> doctorNghCreator = new GridCellNgh<Doctor>(this.getGrid(), currentLocation, Doctor.class, this.getRadiusOfKnowledge(), this.getRadiusOfKnowledge());
-		List<GridCell<Doctor>> doctorGridCells = doctorNghCreator.getNeighborhood(true);
-		SimUtilities.shuffle(doctorGridCells, RandomHelper.getUniform());
-		
-		double maxCharisma = 0.0;
-		Doctor maxDoctor = null;
-		for (GridCell<Doctor> cell : doctorGridCells) {
-			if (cell.size() > 0) {
-				for (Doctor doc : cell.items()) {
-					if(doc.getCharisma() > maxCharisma) {
-						maxDoctor = doc;
-						maxCharisma = doc.getCharisma();
-					}
-				}
-			}
-		}
-		
-		return maxDoctor;
-	}
-	
-	/**
-	 * Query all cells with patients present in the patient's radius of knowledge
-	 * @return List of all cells containing patients inside the neighborhood
-	 */
-	private List<Patient> findPatientAgentsInRadiusOfKnowledge() {
-		int radiusOfKnowledge = getRadiusOfKnowledge();
-		GridPoint location = getGrid().getLocation(this);
-		
-		GridCellNgh<Patient> nghCreator = new GridCellNgh<Patient>(getGrid(), location, Patient.class, radiusOfKnowledge, radiusOfKnowledge);
-		List<GridCell<Patient>> gridCells = nghCreator.getNeighborhood(true);
-
-		List<Patient> patientsInRadius = new ArrayList<Patient>();
-		
-		for (GridCell<Patient> cell : gridCells) {
-			for (Object obj: getGrid().getObjectsAt(cell.getPoint().getX(), cell.getPoint().getY())) {
-				if (obj instanceof Patient) {
-					patientsInRadius.add((Patient) obj);
-				}
-			}
-		}
-		return patientsInRadius;
+		GridPoint currentLocation = this.getFloor().getLocation(this);
+		return getHospital().getCharismaField().getMostCharismaticDoctor(currentLocation);
 	}
 	
 	/*
 	 * Getters and Setters
 	 */
 	public double getPanic() {
-		return this.panic;
+		return this.getStore().getPanic(this.getAgentId());
 	}
 	
 	public void setPanic(double panic) {
-		this.panic = panic;
+		this.getStore().setPanic(this.getAgentId(), panic);
+	}
+	
+	private boolean hasExited() {
+		return this.getStore().hasFlag(this.getAgentId(), AgentStore.EXITED);
+	}
+	
+	private PatientMode getMovementMode() {
+		return MODES[this.getStore().getMode(this.getAgentId())];
+	}
+	
+	private void setMovementMode(PatientMode mode) {
+		this.getStore().setMode(this.getAgentId(), mode.ordinal());
+	}
+	
+	private Doctor getDoctorToFollow() {
+		return (Doctor) this.getStore().get(this.getStore().getFollowed(this.getAgentId()));
+	}
+	
+	private void setDoctorToFollow(Doctor doctor) {
+		this.getStore().setFollowed(this.getAgentId(), doctor == null ? AgentStore.NONE : doctor.getAgentId());
+	}
+	
+	private boolean isBlackListed(Doctor doctor) {
+		return this.blackListedDoctors != null && this.blackListedDoctors.get(doctor.getAgentId());
+	}
+	
+	private void blackList(Doctor doctor) {
+		if (this.blackListedDoctors == null) {
+			this.blackListedDoctors = new BitSet();
+		}
+		this.blackListedDoctors.set(doctor.getAgentId());
 	}
 
 	public double getPatientPanicWeight() {
@@ -321,29 +342,87 @@ public class Patient extends Human {
 		this.patientPanicWeight = weight;
 	}
 	
+	/**
+	 * Apply the doctors the patient started and stopped following, then
+	 * its move or death, as recorded while they were deferred
+	 */
+	@Override
+	public void commit() {
+		Doctor started = (Doctor) this.getStore().get(this.getStore().takePendingFollow(this.getAgentId()));
+		if (started != null) {
+			started.startFollowing();
+		}
+		Doctor stopped = (Doctor) this.getStore().get(this.getStore().takePendingUnfollow(this.getAgentId()));
+		if (stopped != null) {
+			stopped.stopFollowing();
+		}
+		
+		if (commitMove()) {
+			checkIfAtDoor();
+		}
+		if (commitKill()) {
+			leaveBody();
+		}
+	}
+	
+	/**
+	 * Start following a doctor, or record it for the commit while deferring
+	 * @param doctor Doctor to follow
+	 */
+	private void follow(Doctor doctor) {
+		if (this.getStore().isDeferring()) {
+			this.getStore().deferFollow(this.getAgentId(), doctor.getAgentId());
+		} else {
+			doctor.startFollowing();
+		}
+	}
+	
+	/**
+	 * Stop following a doctor, or record it for the commit while deferring
+	 * @param doctor Doctor to stop following
+	 */
+	private void unfollow(Doctor doctor) {
+		if (this.getStore().isDeferring()) {
+			this.getStore().deferUnfollow(this.getAgentId(), doctor.getAgentId());
+		} else {
+			doctor.stopFollowing();
+		}
+	}
+	
 	/**
 	 * Kill a patient by removing it from the context
 	 */
 	public void kill() {
-    	super.kill();
-
+		if (!deferKill()) {
+			super.kill();
+			leaveBody();
+		}
+	}
+	
+	/**
+	 * Replace the patient with a body, or end the run if it was the last
+	 * human and the hospital is not part of a campus
+	 */
+	private void leaveBody() {
     	/*
     	 *  Note: We are not giving the agent global knowledge of the other agents in the system
     	 *  These counts are only to stop the simulation when no human agents remain
     	 */
     	Context<Object> context = ContextUtils.getContext(this);
-    	int humanCount = context.getObjects(Doctor.class).size() + context.getObjects(Patient.class).size();
+    	int humanCount = this.getHospital().getHumanCount();
     	
-    	if (humanCount > 1) {
-	    	GridPoint pt = this.getGrid().getLocation(this);
+    	if (humanCount > 1 || !this.getHospital().endsRunWhenEmpty()) {
+	    	GridPoint pt = this.getFloor().getLocation(this);
 	    	NdPoint spacePt = new NdPoint(pt.getX(), pt.getY());
 	
 			DeadPatient deadPatient = new DeadPatient();
 			context.add(deadPatient);
 			this.getSpace().moveTo(deadPatient, spacePt.getX(), spacePt.getY());
-			this.getGrid().moveTo(deadPatient, pt.getX(), pt.getY());
+			this.getFloor().moveTo(deadPatient, pt.getX(), pt.getY());
 			
 			context.remove(this);
+			this.getHospital().agentMoved(this, pt, null);
+			this.getHospital().agentMoved(deadPatient, null, pt);
     	} else {
     		RunEnvironment.getInstance().endRun();
     	}
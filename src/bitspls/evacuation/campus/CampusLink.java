@@ -0,0 +1,276 @@
+package bitspls.evacuation.campus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import bitspls.evacuation.Door;
+import bitspls.evacuation.DoorPointEnum;
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.PopulationLedger;
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Human;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.schedule.SystemScheduler;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.context.Context;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.parameter.Parameters;
+import repast.simphony.space.continuous.ContinuousSpace;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to connect one building of a campus to the campus coordinator
+ *
+ * Humans that leave through one of the building's linked doors depart for
+ * another building instead of exiting. At the end of every tick the
+ * building reports its population and its departures to the coordinator
+ * and waits for every other building to finish the tick too, then places
+ * the humans arriving from other buildings at the doors they arrive at
+ *
+ * The building never ends its run on its own: the coordinator ends every
+ * building at once when the whole campus is empty
+ * @author Bits Please
+ */
+public class CampusLink {
+	private static final int CLOSEST_DOORS = 3;
+	private static final int ARRIVAL_DISTANCE = 2;		// just outside the cells that queue at a door
+
+	private final Socket socket;
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final int partition;
+	private final int partitions;
+	private final BitSet linkedDoors;
+	private final List<Migrant> departures;
+	private final Random random;
+	private Context<Object> context;
+	private ContinuousSpace<Object> space;
+	private Floor floor;
+	private Hospital hospital;
+	private SystemScheduler systems;
+	private int campusHumans;
+
+	/**
+	 * Connect to the coordinator and wait until every building of the campus has connected
+	 * @param address Host and port of the coordinator, as host:port
+	 * @throws IOException If the coordinator cannot be reached
+	 */
+	public CampusLink(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		this.socket = new Socket(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+		this.socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		out.writeByte(CampusProtocol.HELLO);
+		out.flush();
+		if (in.readByte() != CampusProtocol.WELCOME) {
+			socket.close();
+			throw new IOException("The coordinator at " + address + " did not welcome this building");
+		}
+		this.partition = in.readInt();
+		this.partitions = in.readInt();
+		this.linkedDoors = new BitSet();
+		int links = in.readInt();
+		for (int i = 0; i < links; i++) {
+			linkedDoors.set(in.readInt());
+		}
+
+		this.departures = new ArrayList<Migrant>();
+		this.random = new Random();
+		this.campusHumans = 0;
+	}
+
+	/**
+	 * Give the link what it needs to place arriving humans in the building
+	 * @param context Context the building's agents are kept in
+	 * @param space Space the building is laid out in
+	 * @param floor Floor the building is laid out on
+	 * @param hospital Shared state of the building
+	 * @param systems Scheduler stepping the building's agents, or null if
+	 * they are stepped by the hospital's activity scheduler
+	 */
+	public void attach(Context<Object> context, ContinuousSpace<Object> space, Floor floor, Hospital hospital, SystemScheduler systems) {
+		this.context = context;
+		this.space = space;
+		this.floor = floor;
+		this.hospital = hospital;
+		this.systems = systems;
+	}
+
+	/**
+	 * Check if a door leads to another building rather than outside
+	 * @param door The door
+	 * @return Whether humans leaving through the door depart for another building
+	 */
+	public boolean isLinked(Door door) {
+		return linkedDoors.get(door.getId());
+	}
+
+	/**
+	 * Send a human leaving through a linked door to the building it leads to
+	 * Called before the human is removed, so the building counts it as
+	 * departed rather than exited
+	 * @param door Linked door the human leaves through
+	 * @param human The patient or doctor leaving
+	 */
+	public void depart(Door door, Human human) {
+		human.setMigrated(true);
+		if (human instanceof Doctor) {
+			departures.add(new Migrant(true, door.getId(), ((Doctor) human).getCharisma()));
+		} else {
+			departures.add(new Migrant(false, door.getId(), ((Patient) human).getPanic()));
+		}
+	}
+
+	/**
+	 * Scheduled method to wait for every building to finish the tick, after
+	 * every agent has acted, then take in the humans arriving from other
+	 * buildings or end the run if the campus is empty
+	 */
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.LAST_PRIORITY)
+	public void barrier() {
+		PopulationLedger ledger = hospital.getLedger();
+		List<Migrant> arrivals;
+		try {
+			out.writeByte(CampusProtocol.TICK);
+			out.writeDouble(RunEnvironment.getInstance().getCurrentSchedule().getTickCount());
+			out.writeInt(ledger.getLiveDoctors());
+			out.writeInt(ledger.getLivePatients());
+			out.writeInt(ledger.getExitedDoctors());
+			out.writeInt(ledger.getExitedPatients());
+			out.writeInt(ledger.getDeadDoctors());
+			out.writeInt(ledger.getDeadPatients());
+			Migrant.writeAll(out, departures);
+			out.flush();
+			departures.clear();
+
+			if (in.readByte() != CampusProtocol.RESUME) {
+				close();
+				RunEnvironment.getInstance().endRun();
+				return;
+			}
+			this.campusHumans = in.readInt();
+			arrivals = Migrant.readAll(in);
+		} catch (IOException e) {
+			close();
+			RunEnvironment.getInstance().endRun();
+			throw new IllegalStateException("Lost the campus coordinator", e);
+		}
+
+		for (Migrant migrant : arrivals) {
+			arrive(migrant);
+		}
+	}
+
+	/**
+	 * Place a human arriving from another building next to the door it
+	 * arrives at
+	 * A doctor knows the closest doors to where it arrives, like the
+	 * doctors that start in the building
+	 * @param migrant The arriving human
+	 */
+	private void arrive(Migrant migrant) {
+		Parameters params = RunEnvironment.getInstance().getParameters();
+
+		Human human;
+		if (migrant.isDoctor()) {
+			Doctor doctor = new Doctor(space, floor, hospital, migrant.getTrait(), 0, random);
+			doctor.setCharisma(migrant.getTrait());
+			context.add(doctor);
+			if (systems != null) {
+				systems.add(doctor);
+			} else {
+				hospital.getScheduler().add(doctor);
+			}
+			human = doctor;
+		} else {
+			Patient patient = new Patient(space, floor, hospital, params.getDouble("patient_weight"), migrant.getTrait(), 0, random);
+			patient.setPanic(migrant.getTrait());
+			context.add(patient);
+			if (systems != null) {
+				systems.add(patient);
+			} else {
+				hospital.getScheduler().add(patient);
+			}
+			human = patient;
+		}
+
+		GridPoint pt = findArrivalPoint(hospital.getDoorPoint(migrant.getDoor()));
+		space.moveTo(human, pt.getX() + 0.5, pt.getY() + 0.5);
+		floor.place(human, pt.getX() + 0.5, pt.getY() + 0.5);
+		hospital.agentMoved(human, null, floor.getLocation(human));
+
+		if (human instanceof Doctor) {
+			int[] closestDoors = new int[CLOSEST_DOORS];
+			int found = hospital.getDoorIndex().nearest(floor.getLocation(human), CLOSEST_DOORS, d -> true, closestDoors);
+			for (int i = 0; i < found; i++) {
+				((Doctor) human).addDoor(hospital.getDoor(closestDoors[i]), DoorPointEnum.AVAILABLE);
+			}
+		}
+	}
+
+	/**
+	 * Find a cell for a human to arrive on, ARRIVAL_DISTANCE cells from its
+	 * door, preferring cells without gas
+	 * Arriving on the cells next to the door would put the human straight
+	 * into the door's exit queue, so it would leave again on the next tick
+	 * @param doorPt Location of the door
+	 * @return Cell to place the human on
+	 */
+	private GridPoint findArrivalPoint(GridPoint doorPt) {
+		List<GridPoint> cells = new ArrayList<GridPoint>();
+		List<GridPoint> clearCells = new ArrayList<GridPoint>();
+		for (int y = doorPt.getY() - ARRIVAL_DISTANCE; y <= doorPt.getY() + ARRIVAL_DISTANCE; y++) {
+			for (int x = doorPt.getX() - ARRIVAL_DISTANCE; x <= doorPt.getX() + ARRIVAL_DISTANCE; x++) {
+				boolean onRing = Math.max(Math.abs(x - doorPt.getX()), Math.abs(y - doorPt.getY())) == ARRIVAL_DISTANCE;
+				if (!onRing || x < 0 || y < 0 || x >= floor.getWidth() || y >= floor.getHeight()) {
+					continue;
+				}
+				GridPoint cell = new GridPoint(x, y);
+				cells.add(cell);
+				if (!hospital.getGasField().isGas(x, y)) {
+					clearCells.add(cell);
+				}
+			}
+		}
+		List<GridPoint> choices = clearCells.isEmpty() ? cells : clearCells;
+		return choices.get(random.nextInt(choices.size()));
+	}
+
+	/**
+	 * Disconnect from the coordinator
+	 */
+	private void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing left to do with the socket
+		}
+	}
+
+	/*
+	 * Getters
+	 */
+	public int getPartition() {
+		return this.partition;
+	}
+
+	public int getPartitions() {
+		return this.partitions;
+	}
+
+	public int getCampusHumans() {
+		return this.campusHumans;
+	}
+}
@@ -0,0 +1,30 @@
+package bitspls.evacuation.campus;
+
+/**
+ * Messages passed between the campus coordinator and the buildings, each a
+ * one-byte type followed by its fields on a DataOutputStream
+ *
+ * - HELLO (building to coordinator, on connecting): no fields
+ * - WELCOME (coordinator to building, once every building has connected):
+ *   the building's partition number, the number of partitions, and the
+ *   count and ids of the building's doors that lead to another building
+ * - TICK (building to coordinator, at the end of every tick): the tick, the
+ *   building's live, exited and dead doctors and patients, and the humans
+ *   that left through a linked door during the tick
+ * - RESUME (coordinator to building, once every building has sent TICK):
+ *   the number of humans left on the whole campus and the humans arriving
+ *   at the building
+ * - END (coordinator to building): the campus is empty or a building was
+ *   lost, no fields
+ * @author Bits Please
+ */
+final class CampusProtocol {
+	static final byte HELLO = 1;
+	static final byte WELCOME = 2;
+	static final byte TICK = 3;
+	static final byte RESUME = 4;
+	static final byte END = 5;
+
+	private CampusProtocol() {
+	}
+}
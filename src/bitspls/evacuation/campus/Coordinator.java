@@ -0,0 +1,251 @@
+package bitspls.evacuation.campus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to run a campus of hospital buildings, each simulated by its own
+ * worker process, in step with each other
+ *
+ * Every building connects over a socket and is given a partition number in
+ * the order it connects. At the end of every tick each building reports its
+ * population and the humans that left it through a door leading to another
+ * building; once every building has reported (the tick barrier), the
+ * coordinator routes those humans to the building and door their door leads
+ * to and lets every building carry on with the next tick
+ *
+ * The run ends once no human is left in any building or on the way between
+ * two, which takes the place of the check each building makes on its own
+ * when it is run alone. If a building is lost the others are ended too
+ *
+ * Run with: Coordinator port buildings [from:door=to:door ...], where each
+ * link sends the humans leaving building "from" through door "door" to the
+ * given door of building "to"; links are one-way
+ * @author Bits Please
+ */
+public class Coordinator {
+	// Fields of a building's population in a tick report
+	private static final int LIVE_DOCTORS = 0;
+	private static final int LIVE_PATIENTS = 1;
+	private static final int EXITED_DOCTORS = 2;
+	private static final int EXITED_PATIENTS = 3;
+	private static final int DEAD_DOCTORS = 4;
+	private static final int DEAD_PATIENTS = 5;
+	private static final int COUNTS = 6;
+
+	private final int port;
+	private final int partitions;
+	private final List<Map<Integer, int[]>> links;		// per building, door to { building, door }
+	private final Socket[] sockets;
+	private final DataInputStream[] in;
+	private final DataOutputStream[] out;
+	private final int[][] counts;
+
+	/**
+	 * Constructor for a coordinator with no links between buildings
+	 * @param port Port to listen for buildings on
+	 * @param partitions Number of buildings to wait for
+	 */
+	public Coordinator(int port, int partitions) {
+		this.port = port;
+		this.partitions = partitions;
+		this.links = new ArrayList<Map<Integer, int[]>>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			links.add(new HashMap<Integer, int[]>());
+		}
+		this.sockets = new Socket[partitions];
+		this.in = new DataInputStream[partitions];
+		this.out = new DataOutputStream[partitions];
+		this.counts = new int[partitions][COUNTS];
+	}
+
+	/**
+	 * Send the humans leaving a building through a door to a door of another building
+	 * @param from Building the humans leave
+	 * @param fromDoor Id of the door they leave through
+	 * @param to Building the humans arrive in
+	 * @param toDoor Id of the door they arrive at
+	 */
+	public void link(int from, int fromDoor, int to, int toDoor) {
+		links.get(from).put(fromDoor, new int[] { to, toDoor });
+	}
+
+	/**
+	 * Wait for every building to connect, then run the tick barrier until
+	 * the campus is empty or a building is lost
+	 * @throws IOException If a building is lost or breaks the protocol
+	 */
+	public void run() throws IOException {
+		try {
+			try (ServerSocket server = new ServerSocket(port)) {
+				for (int p = 0; p < partitions; p++) {
+					accept(server, p);
+				}
+			}
+			for (int p = 0; p < partitions; p++) {
+				welcome(p);
+			}
+
+			double tick;
+			while (true) {
+				tick = Double.NaN;
+				int humans = 0;
+				List<List<Migrant>> arrivals = new ArrayList<List<Migrant>>(partitions);
+				for (int p = 0; p < partitions; p++) {
+					arrivals.add(new ArrayList<Migrant>());
+				}
+
+				for (int p = 0; p < partitions; p++) {
+					double reported = readTick(p);
+					if (p == 0) {
+						tick = reported;
+					} else if (reported != tick) {
+						throw new IOException("Building " + p + " reported tick " + reported + " during tick " + tick);
+					}
+					humans += counts[p][LIVE_DOCTORS] + counts[p][LIVE_PATIENTS];
+
+					for (Migrant migrant : Migrant.readAll(in[p])) {
+						int[] to = links.get(p).get(migrant.getDoor());
+						if (to == null) {
+							throw new IOException("Building " + p + " sent a human through door " + migrant.getDoor() + ", which has no link");
+						}
+						arrivals.get(to[0]).add(migrant.routedTo(to[1]));
+						humans++;
+					}
+				}
+
+				if (humans == 0) {
+					break;
+				}
+				for (int p = 0; p < partitions; p++) {
+					out[p].writeByte(CampusProtocol.RESUME);
+					out[p].writeInt(humans);
+					Migrant.writeAll(out[p], arrivals.get(p));
+					out[p].flush();
+				}
+			}
+
+			System.out.println("Campus empty at tick " + tick + ": "
+					+ total(EXITED_DOCTORS) + " doctors and " + total(EXITED_PATIENTS) + " patients exited, "
+					+ total(DEAD_DOCTORS) + " doctors and " + total(DEAD_PATIENTS) + " patients died");
+		} finally {
+			endAll();
+		}
+	}
+
+	/**
+	 * Accept a building's connection and wait for it to say hello
+	 * @param server Socket listening for buildings
+	 * @param p Partition number to give the building
+	 * @throws IOException If the building does not say hello
+	 */
+	private void accept(ServerSocket server, int p) throws IOException {
+		Socket socket = server.accept();
+		socket.setTcpNoDelay(true);
+		sockets[p] = socket;
+		in[p] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out[p] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		if (in[p].readByte() != CampusProtocol.HELLO) {
+			throw new IOException("Building " + p + " did not say hello");
+		}
+	}
+
+	/**
+	 * Tell a building its partition number and which of its doors lead to another building
+	 * @param p Partition number of the building
+	 * @throws IOException If the building is lost
+	 */
+	private void welcome(int p) throws IOException {
+		out[p].writeByte(CampusProtocol.WELCOME);
+		out[p].writeInt(p);
+		out[p].writeInt(partitions);
+		out[p].writeInt(links.get(p).size());
+		for (int door : links.get(p).keySet()) {
+			out[p].writeInt(door);
+		}
+		out[p].flush();
+	}
+
+	/**
+	 * Read the start of a building's tick report, up to its departing humans
+	 * @param p Partition number of the building
+	 * @return Tick the building reported
+	 * @throws IOException If the building is lost or sent something else
+	 */
+	private double readTick(int p) throws IOException {
+		if (in[p].readByte() != CampusProtocol.TICK) {
+			throw new IOException("Building " + p + " did not report its tick");
+		}
+		double tick = in[p].readDouble();
+		for (int i = 0; i < COUNTS; i++) {
+			counts[p][i] = in[p].readInt();
+		}
+		return tick;
+	}
+
+	/**
+	 * Tell every building still connected to end its run, and disconnect
+	 */
+	private void endAll() {
+		for (int p = 0; p < partitions; p++) {
+			if (sockets[p] == null) {
+				continue;
+			}
+			try {
+				out[p].writeByte(CampusProtocol.END);
+				out[p].flush();
+			} catch (IOException e) {
+				// The building is already gone
+			}
+			try {
+				sockets[p].close();
+			} catch (IOException e) {
+				// Nothing left to do with the socket
+			}
+		}
+	}
+
+	/**
+	 * Add up one population count over every building
+	 * @param field Field of the tick report to add up
+	 * @return Total over the campus
+	 */
+	private int total(int field) {
+		int total = 0;
+		for (int p = 0; p < partitions; p++) {
+			total += counts[p][field];
+		}
+		return total;
+	}
+
+	/**
+	 * Start a coordinator from the command line
+	 * @param args Port, number of buildings and any links as from:door=to:door
+	 * @throws IOException If a building is lost or breaks the protocol
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: Coordinator port buildings [from:door=to:door ...]");
+			System.exit(2);
+		}
+
+		Coordinator coordinator = new Coordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+		for (int i = 2; i < args.length; i++) {
+			String[] ends = args[i].split("=");
+			String[] from = ends[0].split(":");
+			String[] to = ends[1].split(":");
+			coordinator.link(Integer.parseInt(from[0]), Integer.parseInt(from[1]), Integer.parseInt(to[0]), Integer.parseInt(to[1]));
+		}
+		System.out.println("Waiting for " + args[1] + " buildings on port " + args[0]);
+		coordinator.run();
+	}
+}
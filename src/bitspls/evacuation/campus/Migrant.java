@@ -0,0 +1,90 @@
+package bitspls.evacuation.campus;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to represent a human on its way from one building of the campus to
+ * another
+ * Only what the human carries with it is sent: door ids and door knowledge
+ * belong to a building, so a doctor learns the doors of the building it
+ * arrives in afresh
+ * @author Bits Please
+ */
+class Migrant {
+	private final boolean doctor;
+	private final int door;
+	private final double trait;
+
+	/**
+	 * Constructor for a migrant
+	 * @param doctor Whether the human is a doctor rather than a patient
+	 * @param door Door the human left through, or arrives at once it is routed
+	 * @param trait Charisma of a doctor or panic of a patient
+	 */
+	Migrant(boolean doctor, int door, double trait) {
+		this.doctor = doctor;
+		this.door = door;
+		this.trait = trait;
+	}
+
+	/**
+	 * Copy the migrant with the door it arrives at in the next building
+	 * @param door Id of the door in the next building
+	 * @return The routed migrant
+	 */
+	Migrant routedTo(int door) {
+		return new Migrant(this.doctor, door, this.trait);
+	}
+
+	/**
+	 * Write a list of migrants, preceded by their count
+	 * @param out Stream to write to
+	 * @param migrants Migrants to write
+	 * @throws IOException If the stream fails
+	 */
+	static void writeAll(DataOutputStream out, List<Migrant> migrants) throws IOException {
+		out.writeInt(migrants.size());
+		for (Migrant migrant : migrants) {
+			out.writeBoolean(migrant.doctor);
+			out.writeInt(migrant.door);
+			out.writeDouble(migrant.trait);
+		}
+	}
+
+	/**
+	 * Read a list of migrants written by writeAll
+	 * @param in Stream to read from
+	 * @return New list of the migrants
+	 * @throws IOException If the stream fails or ends early
+	 */
+	static List<Migrant> readAll(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<Migrant> migrants = new ArrayList<Migrant>(count);
+		for (int i = 0; i < count; i++) {
+			boolean doctor = in.readBoolean();
+			int door = in.readInt();
+			double trait = in.readDouble();
+			migrants.add(new Migrant(doctor, door, trait));
+		}
+		return migrants;
+	}
+
+	/*
+	 * Getters
+	 */
+	boolean isDoctor() {
+		return this.doctor;
+	}
+
+	int getDoor() {
+		return this.door;
+	}
+
+	double getTrait() {
+		return this.trait;
+	}
+}
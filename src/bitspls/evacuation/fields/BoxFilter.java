@@ -0,0 +1,64 @@
+package bitspls.evacuation.fields;
+
+/**
+ * Separable sliding-window filters over row-major grids of values
+ * Windows are square, centered on each cell and clipped at the grid edges,
+ * matching the neighborhoods built by GridCellNgh
+ * @author Bits Please
+ */
+public final class BoxFilter {
+	private BoxFilter() {
+	}
+
+	/**
+	 * Sum every value within a square window around each cell
+	 * Runs a horizontal then a vertical running sum, so the cost does not
+	 * depend on the radius
+	 * @param src Values to filter
+	 * @param tmp Scratch buffer the same size as src
+	 * @param dst Buffer to write the window sums to, may not be src
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param radius Extent of the window in each direction
+	 */
+	public static void sum(double[] src, double[] tmp, double[] dst, int width, int height, int radius) {
+		// Horizontal pass
+		for (int y = 0; y < height; y++) {
+			int row = y * width;
+			double running = 0;
+			for (int x = 0; x <= Math.min(radius, width - 1); x++) {
+				running += src[row + x];
+			}
+			for (int x = 0; x < width; x++) {
+				tmp[row + x] = running;
+				int enter = x + radius + 1;
+				int leave = x - radius;
+				if (enter < width) {
+					running += src[row + enter];
+				}
+				if (leave >= 0) {
+					running -= src[row + leave];
+				}
+			}
+		}
+
+		// Vertical pass
+		for (int x = 0; x < width; x++) {
+			double running = 0;
+			for (int y = 0; y <= Math.min(radius, height - 1); y++) {
+				running += tmp[y * width + x];
+			}
+			for (int y = 0; y < height; y++) {
+				dst[y * width + x] = running;
+				int enter = y + radius + 1;
+				int leave = y - radius;
+				if (enter < height) {
+					running += tmp[enter * width + x];
+				}
+				if (leave >= 0) {
+					running -= tmp[leave * width + x];
+				}
+			}
+		}
+	}
+}
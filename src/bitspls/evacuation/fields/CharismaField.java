@@ -0,0 +1,119 @@
+package bitspls.evacuation.fields;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.context.Context;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.random.RandomHelper;
+import repast.simphony.space.grid.GridPoint;
+import repast.simphony.util.ContextUtils;
+
+/**
+ * Class to represent the influence of doctors over the patients around them
+ * At the start of every tick each doctor stamps its charisma over every cell
+ * within the patients' radius of knowledge, keeping the most charismatic
+ * doctor per cell, so a patient can find the best doctor in range with a
+ * single lookup
+ *
+ * Doctors are few and patients are many, so the work is done per doctor and
+ * cells are cleared lazily by tagging them with the tick they were stamped in
+ * @author Bits Please
+ */
+public class CharismaField {
+	private final Floor floor;
+	private final int width;
+	private final int height;
+	private final int radius;
+
+	private final double[] bestCharisma;
+	private final double[] tieBreak;
+	private final int[] bestDoctor;
+	private final int[] stampedEpoch;
+	private final List<Doctor> doctors;
+	private int epoch;
+
+	/**
+	 * Constructor for the charisma field
+	 * @param floor Floor the doctors are located in
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param radius Radius of knowledge patients can see doctors within
+	 */
+	public CharismaField(Floor floor, int width, int height, int radius) {
+		this.floor = floor;
+		this.width = width;
+		this.height = height;
+		this.radius = radius;
+		this.bestCharisma = new double[width * height];
+		this.tieBreak = new double[width * height];
+		this.bestDoctor = new int[width * height];
+		this.stampedEpoch = new int[width * height];
+		this.doctors = new ArrayList<Doctor>();
+		this.epoch = 0;
+	}
+
+	/**
+	 * Scheduled method to stamp every doctor's charisma before any patient acts
+	 */
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
+	public void update() {
+		epoch++;
+		doctors.clear();
+
+		Context<Object> context = ContextUtils.getContext(this);
+		for (Object obj : context.getObjects(Doctor.class)) {
+			Doctor doctor = (Doctor) obj;
+			GridPoint pt = floor.getLocation(doctor);
+			if (pt != null && doctor.getCharisma() > 0) {
+				doctors.add(doctor);
+				stamp(doctors.size() - 1, doctor.getCharisma(), pt);
+			}
+		}
+	}
+
+	/**
+	 * Stamp a doctor over the square around it, keeping the more charismatic
+	 * doctor in each cell and breaking ties randomly
+	 * @param doctor Position of the doctor in this tick's list of doctors
+	 * @param charisma Charisma of the doctor
+	 * @param pt Location of the doctor
+	 */
+	private void stamp(int doctor, double charisma, GridPoint pt) {
+		double random = RandomHelper.nextDouble();
+		for (int y = Math.max(0, pt.getY() - radius); y <= Math.min(height - 1, pt.getY() + radius); y++) {
+			for (int x = Math.max(0, pt.getX() - radius); x <= Math.min(width - 1, pt.getX() + radius); x++) {
+				int cell = y * width + x;
+				if (stampedEpoch[cell] != epoch || charisma > bestCharisma[cell]
+						|| (charisma == bestCharisma[cell] && random > tieBreak[cell])) {
+					stampedEpoch[cell] = epoch;
+					bestCharisma[cell] = charisma;
+					tieBreak[cell] = random;
+					bestDoctor[cell] = doctor;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the most charismatic doctor within the radius of knowledge of a point,
+	 * as of the start of the tick
+	 * A doctor that has since died or left the floor can no longer be followed
+	 * @param pt Location of the patient
+	 * @return The doctor, or null if no doctor is in range or it is gone
+	 */
+	public Doctor getMostCharismaticDoctor(GridPoint pt) {
+		int cell = pt.getY() * width + pt.getX();
+		if (stampedEpoch[cell] != epoch) {
+			return null;
+		}
+		Doctor doctor = doctors.get(bestDoctor[cell]);
+		if (doctor.isDead() || floor.getLocation(doctor) == null) {
+			return null;
+		}
+		return doctor;
+	}
+}
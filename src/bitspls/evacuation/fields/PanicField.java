@@ -0,0 +1,80 @@
+package bitspls.evacuation.fields;
+
+import java.util.Arrays;
+
+import bitspls.evacuation.agents.AgentStore;
+import repast.simphony.engine.schedule.ScheduleParameters;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to represent the panic patients can sense around them
+ * At the start of every tick the panic and position of every patient are
+ * rasterized onto the grid, in one sweep over the agent store, and box-filtered over the patients' radius of
+ * knowledge, so each patient can read the average panic of its neighborhood
+ * with a single lookup
+ *
+ * The field is double-buffered: patients read the snapshot taken at the
+ * start of the tick, so the order patients are scheduled in does not matter
+ * @author Bits Please
+ */
+public class PanicField {
+	private final AgentStore agents;
+	private final int width;
+	private final int height;
+	private final int radius;
+
+	// Rasterized panic sums and patient counts, filtered in place into the back buffers
+	private final double[] panicRaster;
+	private final double[] countRaster;
+	private final double[] scratch;
+	private double[][] panicSums;
+	private double[][] patientCounts;
+	private int front;
+
+	/**
+	 * Constructor for the panic field
+	 * @param agents Store holding the panic and location of every patient
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param radius Radius of knowledge patients sense panic within
+	 */
+	public PanicField(AgentStore agents, int width, int height, int radius) {
+		this.agents = agents;
+		this.width = width;
+		this.height = height;
+		this.radius = radius;
+		this.panicRaster = new double[width * height];
+		this.countRaster = new double[width * height];
+		this.scratch = new double[width * height];
+		this.panicSums = new double[2][width * height];
+		this.patientCounts = new double[2][width * height];
+		this.front = 0;
+	}
+
+	/**
+	 * Scheduled method to take a snapshot of patient panic before any patient acts
+	 */
+	@ScheduledMethod(start = 1, interval = 1, priority = ScheduleParameters.FIRST_PRIORITY)
+	public void update() {
+		Arrays.fill(panicRaster, 0);
+		Arrays.fill(countRaster, 0);
+		agents.rasterizePanic(panicRaster, countRaster);
+
+		int back = 1 - front;
+		BoxFilter.sum(panicRaster, scratch, panicSums[back], width, height, radius);
+		BoxFilter.sum(countRaster, scratch, patientCounts[back], width, height, radius);
+		front = back;
+	}
+
+	/**
+	 * Find the average panic of the patients within the radius of knowledge of a point,
+	 * as of the start of the tick
+	 * @param pt Center of the neighborhood
+	 * @return Average panic, ignoring negative panic levels in the total
+	 */
+	public double getAveragePanic(GridPoint pt) {
+		int cell = pt.getY() * width + pt.getX();
+		return panicSums[front][cell] / patientCounts[front][cell];
+	}
+}
@@ -0,0 +1,121 @@
+package bitspls.evacuation.gas;
+
+import java.util.Arrays;
+
+/**
+ * Class to represent a distance transform of the gas cloud
+ * For every cell it stores the closest cell containing gas, so the distance
+ * and direction to the nearest gas can be read in constant time
+ *
+ * Built with two raster passes that propagate the nearest gas cell between
+ * 8-connected neighbors, which gives (near-)Euclidean distances
+ * @author Bits Please
+ */
+class GasDistanceTransform {
+	private static final int NONE = -1;
+
+	private final int width;
+	private final int height;
+	private final int[] nearest;		// index of the closest gas cell, or NONE if there is no gas
+	private final int[] distanceSq;		// squared distance to that cell
+
+	/**
+	 * Constructor for an empty distance transform
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	GasDistanceTransform(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.nearest = new int[width * height];
+		this.distanceSq = new int[width * height];
+	}
+
+	/**
+	 * Rebuild the transform from a row-major occupancy array
+	 * @param cells Occupancy of each cell, non-zero cells contain gas
+	 */
+	void build(byte[] cells) {
+		Arrays.fill(nearest, NONE);
+		Arrays.fill(distanceSq, Integer.MAX_VALUE);
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i] != 0) {
+				nearest[i] = i;
+				distanceSq[i] = 0;
+			}
+		}
+
+		// Forward pass: pull from the left and the row above, then sweep back along the row
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				relax(x, y, x - 1, y);
+				relax(x, y, x - 1, y - 1);
+				relax(x, y, x, y - 1);
+				relax(x, y, x + 1, y - 1);
+			}
+			for (int x = width - 1; x >= 0; x--) {
+				relax(x, y, x + 1, y);
+			}
+		}
+
+		// Backward pass: pull from the right and the row below, then sweep forward along the row
+		for (int y = height - 1; y >= 0; y--) {
+			for (int x = width - 1; x >= 0; x--) {
+				relax(x, y, x + 1, y);
+				relax(x, y, x + 1, y + 1);
+				relax(x, y, x, y + 1);
+				relax(x, y, x - 1, y + 1);
+			}
+			for (int x = 0; x < width; x++) {
+				relax(x, y, x - 1, y);
+			}
+		}
+	}
+
+	/**
+	 * Adopt a neighbor's nearest gas cell if it is closer than the current one
+	 * @param x X-coordinate of the cell being updated
+	 * @param y Y-coordinate of the cell being updated
+	 * @param nx X-coordinate of the neighbor
+	 * @param ny Y-coordinate of the neighbor
+	 */
+	private void relax(int x, int y, int nx, int ny) {
+		if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+			return;
+		}
+
+		int candidate = nearest[ny * width + nx];
+		if (candidate == NONE) {
+			return;
+		}
+
+		int dx = candidate % width - x;
+		int dy = candidate / width - y;
+		int d = dx * dx + dy * dy;
+		int cell = y * width + x;
+		if (d < distanceSq[cell]) {
+			distanceSq[cell] = d;
+			nearest[cell] = candidate;
+		}
+	}
+
+	/**
+	 * Get the closest gas cell to a cell
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @return Index of the closest gas cell, or -1 if there is no gas
+	 */
+	int nearestGas(int x, int y) {
+		return nearest[y * width + x];
+	}
+
+	/**
+	 * Get the squared distance from a cell to the closest gas cell
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @return Squared distance, or Integer.MAX_VALUE if there is no gas
+	 */
+	int distanceSq(int x, int y) {
+		return distanceSq[y * width + x];
+	}
+}
@@ -0,0 +1,447 @@
+package bitspls.evacuation.gas;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.Set;
+
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.space.Floor;
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.context.Context;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.random.RandomHelper;
+import repast.simphony.space.Dimensions;
+import repast.simphony.space.grid.GridPoint;
+import repast.simphony.util.ContextUtils;
+import repast.simphony.valueLayer.ValueLayer;
+
+/**
+ * Class to represent the gas cloud as a compact occupancy field over the grid
+ * Each grid cell is a single byte that is non-zero when the cell contains gas,
+ * so no agent or projection entry is needed per gas cell
+ * Spreading only visits the frontier of the cloud (see GasFrontier) and radius
+ * queries are answered from a summed-area table and a distance transform,
+ * each rebuilt once after the gas spreads
+ *
+ * The field spreads the gas, poisons human agents standing in gas and answers
+ * all "is there gas here / in this radius" queries made by the other agents
+ * @author Bits Please
+ */
+public class GasField implements ValueLayer, MoveListener {
+	public static final String NAME = "gas";
+
+	private static final byte EMPTY = 0;
+	private static final byte GAS = 1;
+
+	private final Floor floor;
+	private final int width;
+	private final int height;
+	private final byte[] cells;
+	private final GasFrontier frontier;
+	private final SummedAreaTable integral;
+	private final GasDistanceTransform distances;
+	private boolean integralStale;
+	private boolean distancesStale;
+	private final List<GasListener> listeners;
+	private int gasCount;
+	private final List<Integer> newGasCells;
+	private final Set<Object> exposedAgents;
+
+	/**
+	 * Constructor for the gas field
+	 * @param floor Floor the gas is located in
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public GasField(Floor floor, int width, int height) {
+		this.floor = floor;
+		this.width = width;
+		this.height = height;
+		this.cells = new byte[width * height];
+		this.frontier = new GasFrontier(2 * (width + height));
+		this.integral = new SummedAreaTable(width, height);
+		this.distances = new GasDistanceTransform(width, height);
+		this.integralStale = true;
+		this.distancesStale = true;
+		this.listeners = new ArrayList<GasListener>();
+		this.gasCount = 0;
+		this.newGasCells = new ArrayList<Integer>();
+		this.exposedAgents = new LinkedHashSet<Object>();
+	}
+
+	/**
+	 * Register a listener to be told about every cell the gas spreads into
+	 * @param listener Listener to add
+	 */
+	public void addListener(GasListener listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Places gas into a cell, typically used to seed the gas cloud
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 */
+	public void addGas(int x, int y) {
+		if (isInBounds(x, y) && cells[index(x, y)] == EMPTY) {
+			fill(index(x, y));
+		}
+	}
+
+	/**
+	 * Scheduled method to spread the gas, only woken on spreading ticks
+	 * Every frontier cell that contained gas at the start of the spread spawns
+	 * gas into one randomly chosen neighboring cell that does not already have
+	 * gas; cells left without any free neighbor retire from the frontier
+	 */
+	@ScheduledMethod(start = 10, interval = 10)
+	public void spread() {
+		int cellsToVisit = frontier.beginSweep();
+		for (int i = 0; i < cellsToVisit; i++) {
+			int cell = frontier.get(i);
+			if (spawnIntoNeighbor(cell % width, cell / width)) {
+				frontier.keep(i);
+			}
+		}
+		frontier.endSweep();
+	}
+
+	/**
+	 * Spawn gas into a random empty cell of the 3x3 neighborhood around a cell
+	 * @param x X-coordinate of the spreading cell
+	 * @param y Y-coordinate of the spreading cell
+	 * @return Whether the cell still has an empty neighbor after spawning
+	 */
+	private boolean spawnIntoNeighbor(int x, int y) {
+		int freeNeighbors = countFreeNeighbors(x, y);
+		if (freeNeighbors == 0) {
+			return false;
+		}
+
+		int choice = RandomHelper.nextIntFromTo(0, freeNeighbors - 1);
+		for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+			for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+				if (cells[index(nx, ny)] == EMPTY && choice-- == 0) {
+					fill(index(nx, ny));
+					return freeNeighbors > 1;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Mark a cell as containing gas and put it on the frontier
+	 * @param cell Index of the cell
+	 */
+	private void fill(int cell) {
+		cells[cell] = GAS;
+		frontier.add(cell);
+		integralStale = true;
+		distancesStale = true;
+		gasCount++;
+		newGasCells.add(cell);
+
+		for (GasListener listener : listeners) {
+			listener.gasAdded(cell % width, cell / width);
+		}
+	}
+
+	/**
+	 * Remember agents that enter a cell containing gas so they are poisoned
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (to != null && (agent instanceof Doctor || agent instanceof Patient) && isGas(to.getX(), to.getY())) {
+			exposedAgents.add(agent);
+		}
+	}
+
+	/**
+	 * Scheduled method to poison any humans occupying a grid point that contains gas
+	 * Only woken by gas arriving: the humans standing in cells the gas spread
+	 * into and the humans that walked into gas since the last call are checked
+	 */
+	@ScheduledMethod(start = 1, interval = 1)
+	public void poison() {
+		if (newGasCells.isEmpty() && exposedAgents.isEmpty()) {
+			return;
+		}
+
+		for (int cell : newGasCells) {
+			for (Object obj : floor.getObjectsAt(cell % width, cell / width)) {
+				if (obj instanceof Doctor || obj instanceof Patient) {
+					exposedAgents.add(obj);
+				}
+			}
+		}
+		newGasCells.clear();
+
+		Context<Object> context = ContextUtils.getContext(this);
+		List<Doctor> poisonedDoctors = new ArrayList<Doctor>();
+		List<Patient> poisonedPatients = new ArrayList<Patient>();
+		for (Object obj : exposedAgents) {
+			if (context.contains(obj) && isGasAt(obj)) {
+				if (obj instanceof Doctor) {
+					poisonedDoctors.add((Doctor) obj);
+				} else {
+					poisonedPatients.add((Patient) obj);
+				}
+			}
+		}
+		exposedAgents.clear();
+
+		for (Doctor doctor : poisonedDoctors) {
+			doctor.kill();
+		}
+		for (Patient patient : poisonedPatients) {
+			patient.kill();
+		}
+	}
+
+	/**
+	 * Check if the cell an agent is located in contains gas
+	 * @param agent Agent located in the grid
+	 * @return Whether the agent's cell contains gas
+	 */
+	private boolean isGasAt(Object agent) {
+		GridPoint pt = floor.getLocation(agent);
+		return pt != null && isGas(pt.getX(), pt.getY());
+	}
+
+	/**
+	 * Check if a cell contains gas
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @return Whether the cell contains gas, false for cells outside the grid
+	 */
+	public boolean isGas(int x, int y) {
+		return isInBounds(x, y) && cells[index(x, y)] != EMPTY;
+	}
+
+	/**
+	 * Check if there is any gas in the square neighborhood around a point
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @return Whether any cell in the neighborhood contains gas
+	 */
+	public boolean isGasInRadius(GridPoint pt, int radius) {
+		return countGasInRadius(pt, radius) > 0;
+	}
+
+	/**
+	 * Count the cells containing gas in the square neighborhood around a point
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @return Number of gas cells in the neighborhood
+	 */
+	public int countGasInRadius(GridPoint pt, int radius) {
+		return getIntegral().countInRadius(pt.getX(), pt.getY(), radius);
+	}
+
+	/**
+	 * Find a cell containing gas that lies ahead of a point, i.e. within
+	 * 90 degrees either side of a direction of travel
+	 * Rather than scanning the neighborhood, the distance transform is read at
+	 * the point and at each cell along the direction of travel: the nearest
+	 * gas to the path ahead is the gas in the way. Of those cells, the one
+	 * closest to the point that is ahead of it and within the radius is returned
+	 * @param pt Point to search from
+	 * @param radius Maximum extent from the point in each direction
+	 * @param angle Direction of travel, in radians
+	 * @return GridPoint of the gas cell ahead (the point itself if it contains
+	 * gas), or null if none is found within the radius
+	 */
+	public GridPoint findNearestGasAhead(GridPoint pt, int radius, double angle) {
+		if (!isInBounds(pt.getX(), pt.getY())) {
+			return null;
+		}
+
+		GasDistanceTransform distances = getDistances();
+		int distanceSq = distances.distanceSq(pt.getX(), pt.getY());
+		if (distanceSq == 0) {
+			return pt;
+		}
+		if (distanceSq > 2 * radius * radius) {
+			return null;		// no gas anywhere in the neighborhood
+		}
+
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		int best = -1;
+		int bestDistanceSq = Integer.MAX_VALUE;
+		for (int step = 0; step <= radius; step++) {
+			int x = pt.getX() + (int) Math.round(step * cos);
+			int y = pt.getY() + (int) Math.round(step * sin);
+			if (!isInBounds(x, y)) {
+				break;
+			}
+
+			int cell = distances.nearestGas(x, y);
+			int dx = cell % width - pt.getX();
+			int dy = cell / width - pt.getY();
+			if (Math.abs(dx) > radius || Math.abs(dy) > radius || dx * cos + dy * sin < 0) {
+				continue;
+			}
+			if (dx * dx + dy * dy < bestDistanceSq) {
+				best = cell;
+				bestDistanceSq = dx * dx + dy * dy;
+			}
+		}
+		return best < 0 ? null : new GridPoint(best % width, best / width);
+	}
+
+	/**
+	 * Find a random cell that does not contain gas in the square
+	 * neighborhood around a point
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @return GridPoint that has no gas present, or null if every cell has gas
+	 */
+	public GridPoint findClearPoint(GridPoint pt, int radius) {
+		int clearCells = countClearCells(pt, radius);
+		return clearCells == 0 ? null : findClearPoint(pt, radius, RandomHelper.nextIntFromTo(0, clearCells - 1));
+	}
+
+	/**
+	 * Find a random cell that does not contain gas in the square
+	 * neighborhood around a point, drawing from a given RNG
+	 * Safe to call from several threads once prepareQueries has run
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param random RNG to pick the cell with
+	 * @return GridPoint that has no gas present, or null if every cell has gas
+	 */
+	public GridPoint findClearPoint(GridPoint pt, int radius, SplittableRandom random) {
+		int clearCells = countClearCells(pt, radius);
+		return clearCells == 0 ? null : findClearPoint(pt, radius, random.nextInt(clearCells));
+	}
+
+	/**
+	 * Count the cells without gas in the square neighborhood around a point
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @return Number of clear cells inside the grid
+	 */
+	private int countClearCells(GridPoint pt, int radius) {
+		SummedAreaTable table = getIntegral();
+		return table.areaInRadius(pt.getX(), pt.getY(), radius) - table.countInRadius(pt.getX(), pt.getY(), radius);
+	}
+
+	/**
+	 * Find the n-th clear cell, column by column, in the square neighborhood around a point
+	 * @param pt Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param choice Number of clear cells to skip
+	 * @return GridPoint of the clear cell
+	 */
+	private GridPoint findClearPoint(GridPoint pt, int radius, int choice) {
+		for (int x = Math.max(0, pt.getX() - radius); x <= Math.min(width - 1, pt.getX() + radius); x++) {
+			for (int y = Math.max(0, pt.getY() - radius); y <= Math.min(height - 1, pt.getY() + radius); y++) {
+				if (cells[index(x, y)] == EMPTY && choice-- == 0) {
+					return new GridPoint(x, y);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Count the cells without gas in the 3x3 neighborhood around a cell
+	 * Reads the cells directly since the summed-area table is stale while spreading
+	 * @param cx X-coordinate of the center
+	 * @param cy Y-coordinate of the center
+	 * @return Number of empty cells inside the grid
+	 */
+	private int countFreeNeighbors(int cx, int cy) {
+		int count = 0;
+		for (int x = Math.max(0, cx - 1); x <= Math.min(width - 1, cx + 1); x++) {
+			for (int y = Math.max(0, cy - 1); y <= Math.min(height - 1, cy + 1); y++) {
+				if (cells[index(x, y)] == EMPTY) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Rebuild the summed-area table and distance transform now if the gas has
+	 * spread, so that queries made afterwards only read and can run from
+	 * several threads
+	 */
+	public void prepareQueries() {
+		getIntegral();
+		getDistances();
+	}
+
+	/**
+	 * Get the summed-area table of gas occupancy, rebuilding it once
+	 * after the gas has spread
+	 * @return Up-to-date summed-area table
+	 */
+	private SummedAreaTable getIntegral() {
+		if (integralStale) {
+			integral.build(cells);
+			integralStale = false;
+		}
+		return integral;
+	}
+
+	/**
+	 * Get the distance transform of the gas cloud, rebuilding it once
+	 * after the gas has spread
+	 * @return Up-to-date distance transform
+	 */
+	private GasDistanceTransform getDistances() {
+		if (distancesStale) {
+			distances.build(cells);
+			distancesStale = false;
+		}
+		return distances;
+	}
+
+	private boolean isInBounds(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+	private int index(int x, int y) {
+		return y * width + x;
+	}
+
+	/*
+	 * Getters
+	 */
+	public int getGasCount() {
+		return this.gasCount;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	/*
+	 * ValueLayer implementation so the gas can be displayed and logged
+	 */
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public double get(double... coordinate) {
+		return isGas((int) coordinate[0], (int) coordinate[1]) ? 1 : 0;
+	}
+
+	@Override
+	public Dimensions getDimensions() {
+		return new Dimensions(width, height);
+	}
+}
@@ -0,0 +1,79 @@
+package bitspls.evacuation.gas;
+
+import java.util.Arrays;
+
+/**
+ * Class to track the active frontier of the gas cloud, i.e. the gas cells
+ * that may still have a neighboring cell without gas
+ *
+ * Cells are stored by their index into the gas field and retire from the
+ * frontier once they are found to be completely surrounded by gas, so the
+ * work done on each spread follows the perimeter of the cloud rather than
+ * its area
+ * @author Bits Please
+ */
+class GasFrontier {
+	private int[] cells;
+	private int size;
+	private int sweepEnd;
+	private int kept;
+
+	/**
+	 * Constructor for an empty frontier
+	 * @param initialCapacity Number of cells to allocate room for up front
+	 */
+	GasFrontier(int initialCapacity) {
+		this.cells = new int[Math.max(initialCapacity, 16)];
+		this.size = 0;
+	}
+
+	/**
+	 * Add a cell to the frontier
+	 * Cells added during a sweep are not visited until the next sweep
+	 * @param cell Index of the cell in the gas field
+	 */
+	void add(int cell) {
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, size * 2);
+		}
+		cells[size++] = cell;
+	}
+
+	/**
+	 * Start a sweep over the cells currently on the frontier
+	 * @return Number of cells to visit during this sweep
+	 */
+	int beginSweep() {
+		sweepEnd = size;
+		kept = 0;
+		return sweepEnd;
+	}
+
+	/**
+	 * Get the i-th cell of the current sweep
+	 * @param i Position in the sweep, between 0 and the count returned by beginSweep
+	 * @return Index of the cell in the gas field
+	 */
+	int get(int i) {
+		return cells[i];
+	}
+
+	/**
+	 * Keep the i-th cell of the current sweep on the frontier
+	 * Cells that are visited but not kept retire from the frontier
+	 * @param i Position in the sweep
+	 */
+	void keep(int i) {
+		cells[kept++] = cells[i];
+	}
+
+	/**
+	 * Finish the current sweep, compacting the kept cells and the cells
+	 * added during the sweep to the front of the frontier
+	 */
+	void endSweep() {
+		int added = size - sweepEnd;
+		System.arraycopy(cells, sweepEnd, cells, kept, added);
+		size = kept + added;
+	}
+}
@@ -0,0 +1,14 @@
+package bitspls.evacuation.gas;
+
+/**
+ * Interface for anything that needs to react to the gas cloud growing
+ * @author Bits Please
+ */
+public interface GasListener {
+	/**
+	 * Called when gas spreads into a cell
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 */
+	void gasAdded(int x, int y);
+}
@@ -0,0 +1,34 @@
+package bitspls.evacuation.gas;
+
+import java.awt.Color;
+
+import repast.simphony.valueLayer.ValueLayer;
+import repast.simphony.visualizationOGL2D.ValueLayerStyleOGL;
+
+/**
+ * Display style for the gas field, drawing every cell that contains gas as
+ * a light blue square, the way gas particles used to be drawn
+ * @author Bits Please
+ */
+public class GasStyle implements ValueLayerStyleOGL {
+	private static final Color GAS_COLOR = new Color(0.6f, 0.8f, 1.0f);
+	private static final Color CLEAR_COLOR = new Color(0, 0, 0, 0);
+	private static final float CELL_SIZE = 15.0f;	// matches the display's unit size
+
+	private ValueLayer layer;
+
+	@Override
+	public void init(ValueLayer layer) {
+		this.layer = layer;
+	}
+
+	@Override
+	public float getCellSize() {
+		return CELL_SIZE;
+	}
+
+	@Override
+	public Color getColor(double... coordinates) {
+		return layer.get(coordinates) > 0 ? GAS_COLOR : CLEAR_COLOR;
+	}
+}
@@ -0,0 +1,89 @@
+package bitspls.evacuation.gas;
+
+/**
+ * Class to represent a summed-area table (integral image) over a grid of cells
+ * Once built, the number of occupied cells in any rectangle of the grid
+ * can be found in constant time from four lookups
+ * @author Bits Please
+ */
+class SummedAreaTable {
+	private final int width;
+	private final int height;
+	private final int[] sums;	// (width + 1) x (height + 1), row and column 0 are always zero
+
+	/**
+	 * Constructor for an empty summed-area table
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	SummedAreaTable(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.sums = new int[(width + 1) * (height + 1)];
+	}
+
+	/**
+	 * Rebuild the table from a row-major occupancy array
+	 * @param cells Occupancy of each cell, non-zero cells are counted
+	 */
+	void build(byte[] cells) {
+		int stride = width + 1;
+		for (int y = 0; y < height; y++) {
+			int rowSum = 0;
+			int row = y * width;
+			int above = y * stride;
+			int current = above + stride;
+			for (int x = 0; x < width; x++) {
+				if (cells[row + x] != 0) {
+					rowSum++;
+				}
+				sums[current + x + 1] = sums[above + x + 1] + rowSum;
+			}
+		}
+	}
+
+	/**
+	 * Count the occupied cells in the square around a cell, clipped to the grid
+	 * @param cx X-coordinate of the center
+	 * @param cy Y-coordinate of the center
+	 * @param radius Extent of the square in each direction
+	 * @return Number of occupied cells in the square
+	 */
+	int countInRadius(int cx, int cy, int radius) {
+		return countInRectangle(cx - radius, cy - radius, cx + radius, cy + radius);
+	}
+
+	/**
+	 * Count the occupied cells in a rectangle, clipped to the grid
+	 * @param minX Lowest x-coordinate, inclusive
+	 * @param minY Lowest y-coordinate, inclusive
+	 * @param maxX Highest x-coordinate, inclusive
+	 * @param maxY Highest y-coordinate, inclusive
+	 * @return Number of occupied cells in the rectangle
+	 */
+	int countInRectangle(int minX, int minY, int maxX, int maxY) {
+		int x0 = Math.max(0, minX);
+		int y0 = Math.max(0, minY);
+		int x1 = Math.min(width - 1, maxX) + 1;
+		int y1 = Math.min(height - 1, maxY) + 1;
+		if (x0 >= x1 || y0 >= y1) {
+			return 0;
+		}
+
+		int stride = width + 1;
+		return sums[y1 * stride + x1] - sums[y0 * stride + x1] - sums[y1 * stride + x0] + sums[y0 * stride + x0];
+	}
+
+	/**
+	 * Count every cell, occupied or not, in the square around a cell, clipped to the grid
+	 * @param cx X-coordinate of the center
+	 * @param cy Y-coordinate of the center
+	 * @param radius Extent of the square in each direction
+	 * @return Number of grid cells in the square
+	 */
+	int areaInRadius(int cx, int cy, int radius) {
+		int w = Math.min(width - 1, cx + radius) - Math.max(0, cx - radius) + 1;
+		int h = Math.min(height - 1, cy + radius) - Math.max(0, cy - radius) + 1;
+		return Math.max(0, w) * Math.max(0, h);
+	}
+}
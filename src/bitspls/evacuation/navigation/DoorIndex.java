@@ -0,0 +1,162 @@
+package bitspls.evacuation.navigation;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to find the doors closest to a point without looking at every door
+ * Doors are kept in coarse buckets over the grid, and searches visit rings of
+ * buckets outwards from the point, stopping as soon as no closer door can be
+ * in the next ring
+ *
+ * Searches take a filter on door ids, so each doctor can search by its own
+ * knowledge of the doors (ex. only doors it believes are available)
+ * @author Bits Please
+ */
+public class DoorIndex {
+	private static final int BUCKET_SIZE = 16;
+
+	private final int bucketsX;
+	private final int bucketsY;
+	private final int[][] bucketDoors;
+	private final int[] bucketSizes;
+	private int[] doorX;
+	private int[] doorY;
+	private int doorCount;
+
+	/**
+	 * Constructor for an empty door index
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public DoorIndex(int width, int height) {
+		this.bucketsX = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		this.bucketsY = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+		this.bucketDoors = new int[bucketsX * bucketsY][];
+		this.bucketSizes = new int[bucketsX * bucketsY];
+		this.doorX = new int[16];
+		this.doorY = new int[16];
+		this.doorCount = 0;
+	}
+
+	/**
+	 * Adds the next door to the index
+	 * Doors must be added in order of their ids
+	 * @param pt Grid location of the door
+	 */
+	public void addDoor(GridPoint pt) {
+		if (doorCount == doorX.length) {
+			doorX = Arrays.copyOf(doorX, doorCount * 2);
+			doorY = Arrays.copyOf(doorY, doorCount * 2);
+		}
+		doorX[doorCount] = pt.getX();
+		doorY[doorCount] = pt.getY();
+
+		int bucket = bucket(pt.getX() / BUCKET_SIZE, pt.getY() / BUCKET_SIZE);
+		if (bucketDoors[bucket] == null) {
+			bucketDoors[bucket] = new int[4];
+		} else if (bucketSizes[bucket] == bucketDoors[bucket].length) {
+			bucketDoors[bucket] = Arrays.copyOf(bucketDoors[bucket], bucketSizes[bucket] * 2);
+		}
+		bucketDoors[bucket][bucketSizes[bucket]++] = doorCount;
+		doorCount++;
+	}
+
+	/**
+	 * Find the closest door to a point that passes a filter
+	 * Ties go to the door with the lowest id
+	 * @param pt Point to search from
+	 * @param filter Filter on door ids
+	 * @return Id of the closest door, or -1 if no door passes the filter
+	 */
+	public int nearest(GridPoint pt, IntPredicate filter) {
+		int[] result = new int[1];
+		return nearest(pt, 1, filter, result) == 0 ? -1 : result[0];
+	}
+
+	/**
+	 * Find the k closest doors to a point that pass a filter
+	 * @param pt Point to search from
+	 * @param k Number of doors to find
+	 * @param filter Filter on door ids
+	 * @param result Array of at least k elements the door ids are written
+	 * to, closest first
+	 * @return Number of doors found, at most k
+	 */
+	public int nearest(GridPoint pt, int k, IntPredicate filter, int[] result) {
+		long[] best = new long[k];	// squared distance in the high bits, id in the low bits
+		int found = 0;
+		int bx = clamp(pt.getX() / BUCKET_SIZE, bucketsX);
+		int by = clamp(pt.getY() / BUCKET_SIZE, bucketsY);
+		int rings = Math.max(bucketsX, bucketsY);
+
+		for (int ring = 0; ring <= rings; ring++) {
+			for (int y = by - ring; y <= by + ring; y++) {
+				if (y < 0 || y >= bucketsY) {
+					continue;
+				}
+				boolean edgeRow = y == by - ring || y == by + ring;
+				int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+				for (int x = bx - ring; x <= bx + ring; x += step) {
+					if (x < 0 || x >= bucketsX) {
+						continue;
+					}
+					found = search(bucket(x, y), pt, k, filter, best, found);
+				}
+			}
+
+			// Every door in the next ring is at least this far away
+			long bound = (long) ring * BUCKET_SIZE + 1;
+			if (found == k && bound * bound > (best[k - 1] >>> 32)) {
+				break;
+			}
+		}
+
+		for (int i = 0; i < found; i++) {
+			result[i] = (int) best[i];
+		}
+		return found;
+	}
+
+	/**
+	 * Offer every door in a bucket to the sorted list of the closest doors
+	 * @return Number of doors in the list afterwards
+	 */
+	private int search(int bucket, GridPoint pt, int k, IntPredicate filter, long[] best, int found) {
+		for (int i = 0; i < bucketSizes[bucket]; i++) {
+			int door = bucketDoors[bucket][i];
+			if (!filter.test(door)) {
+				continue;
+			}
+
+			long dx = doorX[door] - pt.getX();
+			long dy = doorY[door] - pt.getY();
+			long key = ((dx * dx + dy * dy) << 32) | door;
+			if (found == k && key >= best[k - 1]) {
+				continue;
+			}
+
+			int position = found == k ? k - 1 : found++;
+			while (position > 0 && best[position - 1] > key) {
+				best[position] = best[position - 1];
+				position--;
+			}
+			best[position] = key;
+		}
+		return found;
+	}
+
+	private int bucket(int x, int y) {
+		return clamp(y, bucketsY) * bucketsX + clamp(x, bucketsX);
+	}
+
+	private static int clamp(int value, int size) {
+		return Math.min(size - 1, Math.max(0, value));
+	}
+
+	public int getDoorCount() {
+		return this.doorCount;
+	}
+}
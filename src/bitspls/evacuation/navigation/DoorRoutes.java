@@ -0,0 +1,77 @@
+package bitspls.evacuation.navigation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import bitspls.evacuation.Door;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.space.Floor;
+
+/**
+ * Class to hold the flow field leading to each door in the hospital
+ * Fields are created the first time a door is navigated to and are shared
+ * by every agent heading to that door
+ * @author Bits Please
+ */
+public class DoorRoutes {
+	private final Floor floor;
+	private final GasField gasField;
+	private final List<Door> doors;
+	private final List<FlowField> fields;
+
+	/**
+	 * Constructor for the door routes
+	 * @param floor Floor the doors are located in
+	 * @param gasField Gas field covering the grid
+	 */
+	public DoorRoutes(Floor floor, GasField gasField) {
+		this.floor = floor;
+		this.gasField = gasField;
+		this.doors = new ArrayList<Door>();
+		this.fields = new ArrayList<FlowField>();
+	}
+
+	/**
+	 * Adds a door that agents can be routed to
+	 * @param door Door to add
+	 */
+	public void addDoor(Door door) {
+		this.doors.add(door);
+		this.fields.add(null);
+	}
+
+	/**
+	 * Get the flow field leading to a door
+	 * Doors are added in id order, so the door's id is its position here
+	 * @param door Door to navigate to
+	 * @return Flow field for the door
+	 */
+	public FlowField getField(Door door) {
+		return getField(door.getId());
+	}
+
+	/**
+	 * Build or repair the flow field of every door now, so that lookups made
+	 * afterwards only read and can run from several threads
+	 */
+	public void prepareFields() {
+		for (int i = 0; i < doors.size(); i++) {
+			getField(i).update();
+		}
+	}
+
+	/**
+	 * Get the flow field for a door, creating it on first use
+	 * @param i Position of the door in the list of doors
+	 * @return Flow field for the door
+	 */
+	private FlowField getField(int i) {
+		FlowField field = fields.get(i);
+		if (field == null) {
+			field = new FlowField(gasField, gasField.getWidth(), gasField.getHeight(), floor.getLocation(doors.get(i)));
+			gasField.addListener(field);
+			fields.set(i, field);
+		}
+		return field;
+	}
+}
@@ -0,0 +1,346 @@
+package bitspls.evacuation.navigation;
+
+import java.util.Arrays;
+
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.gas.GasListener;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to represent a flow field towards a single door
+ * Every cell stores its walking distance to the door (8-connected, gas cells
+ * are impassable) and the neighbor to step to next, so an agent can find its
+ * next step with a single lookup
+ *
+ * The field is built with a breadth-first search from the door and then
+ * repaired incrementally as gas spreads: only cells whose shortest path ran
+ * through the new gas are invalidated and re-searched
+ * @author Bits Please
+ */
+public class FlowField implements GasListener {
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+	private static final byte NO_STEP = -1;
+	private static final int[] DX = { -1, 0, 1, -1, 1, -1, 0, 1 };
+	private static final int[] DY = { -1, -1, -1, 0, 0, 1, 1, 1 };
+
+	private final GasField gasField;
+	private final int width;
+	private final int height;
+	private final int door;
+	private final int[] distance;
+	private final byte[] step;
+	private boolean built;
+
+	// Scratch buffers reused between updates
+	private int[] pending = new int[64];
+	private int pendingCount;
+	private int[] queue = new int[64];
+	private int[] invalid = new int[64];
+	private int[] touched = new int[64];
+	private long[] seeds = new long[64];
+
+	/**
+	 * Constructor for a flow field
+	 * @param gasField Gas field covering the grid
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 * @param doorPoint Grid location of the door the field leads to
+	 */
+	public FlowField(GasField gasField, int width, int height, GridPoint doorPoint) {
+		this.gasField = gasField;
+		this.width = width;
+		this.height = height;
+		this.door = doorPoint.getY() * width + doorPoint.getX();
+		this.distance = new int[width * height];
+		this.step = new byte[width * height];
+		this.built = false;
+	}
+
+	/**
+	 * Queue a cell that gas has spread into, applied before the next lookup
+	 */
+	@Override
+	public void gasAdded(int x, int y) {
+		if (built) {
+			pending = push(pending, pendingCount++, y * width + x);
+		}
+	}
+
+	/**
+	 * Find the next cell to step to from a cell
+	 * @param pt Current location
+	 * @return Neighboring GridPoint one step closer to the door, or null if
+	 * the point is the door, has no route to it, or is outside the grid
+	 */
+	public GridPoint nextStep(GridPoint pt) {
+		if (pt.getX() < 0 || pt.getX() >= width || pt.getY() < 0 || pt.getY() >= height) {
+			return null;
+		}
+
+		update();
+		byte k = step[pt.getY() * width + pt.getX()];
+		if (k == NO_STEP) {
+			return null;
+		}
+		return new GridPoint(pt.getX() + DX[k], pt.getY() + DY[k]);
+	}
+
+	/**
+	 * Find the walking distance from a cell to the door
+	 * @param pt Current location
+	 * @return Number of steps to the door, or Integer.MAX_VALUE if there is no route
+	 */
+	public int getDistance(GridPoint pt) {
+		if (pt.getX() < 0 || pt.getX() >= width || pt.getY() < 0 || pt.getY() >= height) {
+			return UNREACHABLE;
+		}
+
+		update();
+		return distance[pt.getY() * width + pt.getX()];
+	}
+
+	/**
+	 * Build the field on first use, afterwards apply any gas that has spread
+	 */
+	void update() {
+		if (!built) {
+			build();
+			built = true;
+		} else if (pendingCount > 0) {
+			repair();
+		}
+	}
+
+	/**
+	 * Breadth-first search outwards from the door
+	 */
+	private void build() {
+		Arrays.fill(distance, UNREACHABLE);
+		Arrays.fill(step, NO_STEP);
+		if (isGas(door)) {
+			return;
+		}
+
+		distance[door] = 0;
+		int head = 0;
+		int tail = 0;
+		queue = push(queue, tail++, door);
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % width;
+			int y = cell / width;
+			for (int k = 0; k < DX.length; k++) {
+				int nx = x + DX[k];
+				int ny = y + DY[k];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+					continue;
+				}
+				int n = ny * width + nx;
+				if (distance[n] == UNREACHABLE && !isGas(n)) {
+					distance[n] = distance[cell] + 1;
+					queue = push(queue, tail++, n);
+				}
+			}
+		}
+
+		for (int cell = 0; cell < step.length; cell++) {
+			updateStep(cell);
+		}
+	}
+
+	/**
+	 * Repair the field after gas spread into the pending cells
+	 * Cells that lose every neighbor one step closer to the door are invalidated,
+	 * then the invalidated region is re-searched from its valid border
+	 */
+	private void repair() {
+		int head = 0;
+		int tail = 0;
+		int invalidCount = 0;
+		int touchedCount = 0;
+
+		// Gas cells are impassable; their dependants need checking
+		for (int i = 0; i < pendingCount; i++) {
+			int blocked = pending[i];
+			int oldDistance = distance[blocked];
+			distance[blocked] = UNREACHABLE;
+			step[blocked] = NO_STEP;
+
+			int x = blocked % width;
+			int y = blocked / width;
+			for (int k = 0; k < DX.length; k++) {
+				int nx = x + DX[k];
+				int ny = y + DY[k];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+					continue;
+				}
+				int n = ny * width + nx;
+				touched = push(touched, touchedCount++, n);
+				if (oldDistance != UNREACHABLE && distance[n] == oldDistance + 1) {
+					queue = push(queue, tail++, n);
+				}
+			}
+		}
+		pendingCount = 0;
+
+		// Invalidate every cell that no longer has a neighbor one step closer
+		while (head < tail) {
+			int cell = queue[head++];
+			int d = distance[cell];
+			if (d == UNREACHABLE || cell == door || hasStepCloser(cell, d)) {
+				continue;
+			}
+
+			distance[cell] = UNREACHABLE;
+			invalid = push(invalid, invalidCount++, cell);
+			int x = cell % width;
+			int y = cell / width;
+			for (int k = 0; k < DX.length; k++) {
+				int nx = x + DX[k];
+				int ny = y + DY[k];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+					continue;
+				}
+				int n = ny * width + nx;
+				touched = push(touched, touchedCount++, n);
+				if (distance[n] == d + 1) {
+					queue = push(queue, tail++, n);
+				}
+			}
+		}
+
+		// Seed the invalidated cells from their valid neighbors, closest first
+		int seedCount = 0;
+		for (int i = 0; i < invalidCount; i++) {
+			int cell = invalid[i];
+			touched = push(touched, touchedCount++, cell);
+			int best = closestNeighborDistance(cell);
+			if (best != UNREACHABLE && !isGas(cell)) {
+				if (seedCount == seeds.length) {
+					seeds = Arrays.copyOf(seeds, seedCount * 2);
+				}
+				seeds[seedCount++] = ((long) (best + 1) << 32) | cell;
+			}
+		}
+		Arrays.sort(seeds, 0, seedCount);
+
+		// Breadth-first search merged with the sorted seeds
+		head = 0;
+		tail = 0;
+		int nextSeed = 0;
+		while (nextSeed < seedCount || head < tail) {
+			int cell;
+			if (head < tail && (nextSeed == seedCount || distance[queue[head]] <= (int) (seeds[nextSeed] >>> 32))) {
+				cell = queue[head++];
+			} else {
+				long seed = seeds[nextSeed++];
+				cell = (int) seed;
+				int d = (int) (seed >>> 32);
+				if (d >= distance[cell]) {
+					continue;
+				}
+				distance[cell] = d;
+			}
+
+			int x = cell % width;
+			int y = cell / width;
+			for (int k = 0; k < DX.length; k++) {
+				int nx = x + DX[k];
+				int ny = y + DY[k];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+					continue;
+				}
+				int n = ny * width + nx;
+				if (distance[n] > distance[cell] + 1 && !isGas(n)) {
+					distance[n] = distance[cell] + 1;
+					queue = push(queue, tail++, n);
+					touched = push(touched, touchedCount++, n);
+				}
+			}
+		}
+
+		for (int i = 0; i < touchedCount; i++) {
+			updateStep(touched[i]);
+		}
+	}
+
+	/**
+	 * Check if a cell has a neighbor exactly one step closer to the door
+	 * @param cell Index of the cell
+	 * @param d Current distance of the cell
+	 * @return Whether the cell's distance is still supported by a neighbor
+	 */
+	private boolean hasStepCloser(int cell, int d) {
+		int x = cell % width;
+		int y = cell / width;
+		for (int k = 0; k < DX.length; k++) {
+			int nx = x + DX[k];
+			int ny = y + DY[k];
+			if (nx >= 0 && nx < width && ny >= 0 && ny < height && distance[ny * width + nx] == d - 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find the smallest distance among a cell's neighbors
+	 * @param cell Index of the cell
+	 * @return Smallest neighboring distance, or UNREACHABLE
+	 */
+	private int closestNeighborDistance(int cell) {
+		int x = cell % width;
+		int y = cell / width;
+		int best = UNREACHABLE;
+		for (int k = 0; k < DX.length; k++) {
+			int nx = x + DX[k];
+			int ny = y + DY[k];
+			if (nx >= 0 && nx < width && ny >= 0 && ny < height) {
+				best = Math.min(best, distance[ny * width + nx]);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Point a cell at its neighbor with the smallest distance to the door
+	 * @param cell Index of the cell
+	 */
+	private void updateStep(int cell) {
+		step[cell] = NO_STEP;
+		if (cell == door || distance[cell] == UNREACHABLE) {
+			return;
+		}
+
+		int x = cell % width;
+		int y = cell / width;
+		int best = distance[cell];
+		for (int k = 0; k < DX.length; k++) {
+			int nx = x + DX[k];
+			int ny = y + DY[k];
+			if (nx >= 0 && nx < width && ny >= 0 && ny < height && distance[ny * width + nx] < best) {
+				best = distance[ny * width + nx];
+				step[cell] = (byte) k;
+			}
+		}
+	}
+
+	private boolean isGas(int cell) {
+		return gasField.isGas(cell % width, cell / width);
+	}
+
+	/**
+	 * Append a value to a scratch buffer, growing it if needed
+	 * @param buffer Buffer to append to
+	 * @param position Position to write at
+	 * @param value Value to write
+	 * @return The buffer, or a larger copy of it
+	 */
+	private static int[] push(int[] buffer, int position, int value) {
+		if (position == buffer.length) {
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		buffer[position] = value;
+		return buffer;
+	}
+}
@@ -0,0 +1,121 @@
+package bitspls.evacuation.schedule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.random.RandomHelper;
+import repast.simphony.space.grid.GridPoint;
+import repast.simphony.util.SimUtilities;
+
+/**
+ * Class to step the agents that have something to do, instead of every agent
+ * in the context
+ * Agents are either active or dormant: dormant agents are skipped until an
+ * event wakes them (ex. someone joining a door's queue), so the work done each
+ * tick follows what is happening rather than the size of the population
+ *
+ * Active agents are stepped once per tick in a random order, as Repast does
+ * for agents sharing a scheduled method. Agents woken during a tick are first
+ * stepped on the next tick
+ * @author Bits Please
+ */
+public class ActivityScheduler implements MoveListener {
+	private final List<Steppable> active;
+	private final Map<Steppable, Integer> positions;
+	private final Set<Steppable> registered;
+	private final List<Steppable> stepping;
+
+	/**
+	 * Constructor for a scheduler with no agents
+	 */
+	public ActivityScheduler() {
+		this.active = new ArrayList<Steppable>();
+		this.positions = new IdentityHashMap<Steppable, Integer>();
+		this.registered = Collections.newSetFromMap(new IdentityHashMap<Steppable, Boolean>());
+		this.stepping = new ArrayList<Steppable>();
+	}
+
+	/**
+	 * Scheduled method to step every active agent
+	 */
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		stepping.clear();
+		stepping.addAll(active);
+		SimUtilities.shuffle(stepping, RandomHelper.getUniform());
+		for (Steppable agent : stepping) {
+			if (positions.containsKey(agent)) {
+				agent.step();
+			}
+		}
+	}
+
+	/**
+	 * Adds an agent to the scheduler as active
+	 * @param agent Agent to add
+	 */
+	public void add(Steppable agent) {
+		registered.add(agent);
+		wake(agent);
+	}
+
+	/**
+	 * Removes an agent from the scheduler for good
+	 * @param agent Agent to remove
+	 */
+	public void remove(Steppable agent) {
+		sleep(agent);
+		registered.remove(agent);
+	}
+
+	/**
+	 * Make an agent active so it is stepped from the next tick on
+	 * Does nothing for agents that are not in the scheduler
+	 * @param agent Agent to wake
+	 */
+	public void wake(Steppable agent) {
+		if (registered.contains(agent) && !positions.containsKey(agent)) {
+			positions.put(agent, active.size());
+			active.add(agent);
+		}
+	}
+
+	/**
+	 * Make an agent dormant so it is skipped until it is woken
+	 * @param agent Agent to put to sleep
+	 */
+	public void sleep(Steppable agent) {
+		Integer position = positions.remove(agent);
+		if (position != null) {
+			Steppable last = active.remove(active.size() - 1);
+			if (last != agent) {
+				active.set(position, last);
+				positions.put(last, position);
+			}
+		}
+	}
+
+	/**
+	 * Remove agents that left the grid, having died or exited
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (to == null && agent instanceof Steppable) {
+			remove((Steppable) agent);
+		}
+	}
+
+	public int getActiveCount() {
+		return this.active.size();
+	}
+
+	public int getAgentCount() {
+		return this.registered.size();
+	}
+}
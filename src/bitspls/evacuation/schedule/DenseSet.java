@@ -0,0 +1,63 @@
+package bitspls.evacuation.schedule;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class to hold agents of one type packed into a dense list
+ * Removal swaps the last agent into the removed agent's place, so iterating
+ * from the back stays correct when the current agent removes itself
+ * @author Bits Please
+ */
+class DenseSet<T> {
+	private final List<T> agents;
+	private final Map<T, Integer> positions;
+
+	/**
+	 * Constructor for an empty set
+	 */
+	DenseSet() {
+		this.agents = new ArrayList<T>();
+		this.positions = new IdentityHashMap<T, Integer>();
+	}
+
+	/**
+	 * Add an agent, if it is not in the set already
+	 * @param agent Agent to add
+	 */
+	void add(T agent) {
+		if (!positions.containsKey(agent)) {
+			positions.put(agent, agents.size());
+			agents.add(agent);
+		}
+	}
+
+	/**
+	 * Remove an agent, if it is in the set
+	 * @param agent Agent to remove
+	 */
+	void remove(Object agent) {
+		Integer position = positions.remove(agent);
+		if (position != null) {
+			T last = agents.remove(agents.size() - 1);
+			if (last != agent) {
+				agents.set(position, last);
+				positions.put(last, position);
+			}
+		}
+	}
+
+	boolean contains(Object agent) {
+		return positions.containsKey(agent);
+	}
+
+	T get(int i) {
+		return agents.get(i);
+	}
+
+	int size() {
+		return agents.size();
+	}
+}
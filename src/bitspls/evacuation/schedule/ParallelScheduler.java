@@ -0,0 +1,250 @@
+package bitspls.evacuation.schedule;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.agents.AgentStore;
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Patient;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to run every agent synchronously, with patients spread over a
+ * ForkJoin pool
+ *
+ * Each tick has three phases:
+ * - Read: the gas queries and door flow fields are brought up to date so
+ *   that from here on they are only read; panic, charisma, door status and
+ *   door knowledge are already snapshots taken at the start of the tick
+ * - Compute: with the agent store deferring, doctors act (on this thread,
+ *   as they draw from the shared Repast RNG) and then patients act in
+ *   parallel; moves, deaths and follows are recorded against each agent
+ *   instead of applied, so every agent sees the floor, and who is alive,
+ *   as it was at the start of the tick, whatever order the agents run in
+ * - Commit: each doctor and then each patient applies what it recorded, in
+ *   a fixed order, on this thread; doctors commit first so deaths are
+ *   settled before follows, and joining a door's exit queue happens as
+ *   moves are applied (or, for an escaping doctor already at a door, as it
+ *   commits), so the queue order is the commit order. Doors then
+ *   let the front of their queues out
+ *
+ * Patients are either split into equal ranges of the patient list, or,
+ * when a band count is set, into horizontal bands of the floor, each
+ * stepped by one task so a worker's agents and the cells they read stay
+ * close together. A patient is handed off to the band it moved into as its
+ * move is committed. Agents near a band's edge read the rows of the next
+ * band straight from the floor: nothing moves during the compute phase, so
+ * those rows are already the consistent halo a band needs, whatever the
+ * radius of the query
+ * @author Bits Please
+ */
+public class ParallelScheduler extends SystemScheduler {
+	private static final int PATIENTS_PER_TASK = 256;
+
+	private final Hospital hospital;
+	private ForkJoinPool pool;
+	private int parallelism;
+	private List<DenseSet<Patient>> bands;		// null when patients are split by range
+	private Map<Patient, Integer> bandOf;
+
+	/**
+	 * Constructor for a scheduler with no agents
+	 * @param hospital Shared state of the hospital environment
+	 */
+	public ParallelScheduler(Hospital hospital) {
+		this.hospital = hospital;
+		this.parallelism = Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Scheduled method to run one synchronous tick
+	 */
+	@Override
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		if (pool == null) {
+			pool = new ForkJoinPool(parallelism);
+		}
+
+		// Read
+		hospital.getGasField().prepareQueries();
+		hospital.getRoutes().prepareFields();
+
+		// Compute
+		AgentStore agents = hospital.getAgents();
+		agents.setDeferring(true);
+		try {
+			for (int i = doctors.size() - 1; i >= 0; i--) {
+				Doctor doctor = doctors.get(i);
+				if (!doctor.isQueued()) {
+					doctor.step();
+				}
+			}
+			if (bands == null) {
+				pool.invoke(new PatientTask(0, patients.size()));
+			} else {
+				pool.invoke(new BandsTask());
+			}
+		} finally {
+			agents.setDeferring(false);
+		}
+
+		// Commit
+		for (int i = doctors.size() - 1; i >= 0; i--) {
+			doctors.get(i).commit();
+		}
+		for (int i = patients.size() - 1; i >= 0; i--) {
+			patients.get(i).commit();
+		}
+		exitDoors();
+	}
+
+	/**
+	 * Set the number of threads patients are stepped on
+	 * @param parallelism Number of threads, or 0 or less for one per processor
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Split patients into horizontal bands of the floor instead of ranges of the patient list
+	 * Must be set before any agent is placed on the floor
+	 * @param count Number of bands, or 0 or less to split patients by range
+	 */
+	public void setBandCount(int count) {
+		if (count <= 0) {
+			this.bands = null;
+			this.bandOf = null;
+			return;
+		}
+
+		this.bands = new ArrayList<DenseSet<Patient>>(count);
+		for (int i = 0; i < count; i++) {
+			bands.add(new DenseSet<Patient>());
+		}
+		this.bandOf = new IdentityHashMap<Patient, Integer>();
+	}
+
+	/**
+	 * Keep every patient in the band its cell is in, handing it off when it
+	 * moves across a band's edge, and remove agents that left the floor
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		super.agentMoved(agent, from, to);
+		if (bands == null || !(agent instanceof Patient)) {
+			return;
+		}
+
+		Patient patient = (Patient) agent;
+		Integer current = bandOf.get(patient);
+		if (to == null) {
+			if (current != null) {
+				bands.get(current).remove(patient);
+				bandOf.remove(patient);
+			}
+			return;
+		}
+
+		if (!patients.contains(patient)) {
+			return;
+		}
+
+		int band = to.getY() * bands.size() / hospital.getGasField().getHeight();
+		if (current == null || current != band) {
+			if (current != null) {
+				bands.get(current).remove(patient);
+			}
+			bands.get(band).add(patient);
+			bandOf.put(patient, band);
+		}
+	}
+
+	/**
+	 * Task to step every band, one subtask per band
+	 * @author Bits Please
+	 */
+	private class BandsTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			List<BandTask> tasks = new ArrayList<BandTask>(bands.size());
+			for (DenseSet<Patient> band : bands) {
+				tasks.add(new BandTask(band));
+			}
+			invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Task to step the patients of one band
+	 * @author Bits Please
+	 */
+	private static class BandTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final DenseSet<Patient> band;
+
+		/**
+		 * Constructor for a task
+		 * @param band Patients in the band
+		 */
+		BandTask(DenseSet<Patient> band) {
+			this.band = band;
+		}
+
+		@Override
+		protected void compute() {
+			for (int i = band.size() - 1; i >= 0; i--) {
+				Patient patient = band.get(i);
+				if (!patient.isQueued()) {
+					patient.step();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Task to step a range of patients, split in half until it is small enough
+	 * @author Bits Please
+	 */
+	private class PatientTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final int to;
+
+		/**
+		 * Constructor for a task
+		 * @param from First patient to step, inclusive
+		 * @param to Last patient to step, exclusive
+		 */
+		PatientTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= PATIENTS_PER_TASK) {
+				for (int i = from; i < to; i++) {
+					Patient patient = patients.get(i);
+					if (!patient.isQueued()) {
+						patient.step();
+					}
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new PatientTask(from, middle), new PatientTask(middle, to));
+			}
+		}
+	}
+}
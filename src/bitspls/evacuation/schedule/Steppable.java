@@ -0,0 +1,12 @@
+package bitspls.evacuation.schedule;
+
+/**
+ * Interface for agents that are stepped by the ActivityScheduler
+ * @author Bits Please
+ */
+public interface Steppable {
+	/**
+	 * Called once per tick while the agent is active
+	 */
+	void step();
+}
@@ -0,0 +1,150 @@
+package bitspls.evacuation.schedule;
+
+import bitspls.evacuation.Door;
+import bitspls.evacuation.agents.Doctor;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.space.MoveListener;
+import repast.simphony.engine.schedule.ScheduledMethod;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to run the per-tick work of the agents as a few systems, each of
+ * which loops over a dense list of one type of agent in a single call,
+ * instead of stepping each agent on its own
+ *
+ * Each tick runs, in order: doctor decisions, patient panic, patient follow
+ * decisions, movement (doctors, then patients) and door exits. Gas spread,
+ * poisoning, the panic and charisma fields and knowledge exchange are already
+ * single scheduled calls and run as before
+ *
+ * The phases are the same ones Patient.step and Doctor.step run, so an agent
+ * behaves the same either way; only the order agents act in differs, and
+ * everything read across agents before movement is a snapshot taken at the
+ * start of the tick
+ * @author Bits Please
+ */
+public class SystemScheduler implements MoveListener {
+	final DenseSet<Doctor> doctors;
+	final DenseSet<Patient> patients;
+	final DenseSet<Door> doors;
+
+	/**
+	 * Constructor for a scheduler with no agents
+	 */
+	public SystemScheduler() {
+		this.doctors = new DenseSet<Doctor>();
+		this.patients = new DenseSet<Patient>();
+		this.doors = new DenseSet<Door>();
+	}
+
+	/**
+	 * Scheduled method to run every system once
+	 */
+	@ScheduledMethod(start = 1, interval = 1)
+	public void step() {
+		decideDoctors();
+		updatePanic();
+		choosePatientTargets();
+		moveDoctors();
+		movePatients();
+		exitDoors();
+	}
+
+	/**
+	 * Doctor decision system: escape, or update door knowledge
+	 */
+	private void decideDoctors() {
+		for (int i = doctors.size() - 1; i >= 0; i--) {
+			Doctor doctor = doctors.get(i);
+			if (!doctor.isQueued()) {
+				doctor.decide();
+			}
+		}
+	}
+
+	/**
+	 * Panic system: read every patient's panic from the panic field
+	 */
+	private void updatePanic() {
+		for (int i = patients.size() - 1; i >= 0; i--) {
+			Patient patient = patients.get(i);
+			if (!patient.isQueued()) {
+				patient.updatePanic();
+			}
+		}
+	}
+
+	/**
+	 * Follow decision system: pick a doctor to follow or a door to head for
+	 */
+	private void choosePatientTargets() {
+		for (int i = patients.size() - 1; i >= 0; i--) {
+			Patient patient = patients.get(i);
+			if (!patient.isQueued()) {
+				patient.chooseTarget();
+			}
+		}
+	}
+
+	/**
+	 * Movement system for doctors
+	 */
+	private void moveDoctors() {
+		for (int i = doctors.size() - 1; i >= 0; i--) {
+			Doctor doctor = doctors.get(i);
+			if (!doctor.isQueued()) {
+				doctor.act();
+			}
+		}
+	}
+
+	/**
+	 * Movement system for patients
+	 */
+	private void movePatients() {
+		for (int i = patients.size() - 1; i >= 0; i--) {
+			Patient patient = patients.get(i);
+			if (!patient.isQueued()) {
+				patient.moveToTarget();
+			}
+		}
+	}
+
+	/**
+	 * Door exit system: let the front of every exit queue out
+	 */
+	void exitDoors() {
+		for (int i = doors.size() - 1; i >= 0; i--) {
+			Door door = doors.get(i);
+			if (door.getExitQueueLength() > 0) {
+				door.allowPatientsOrDoctorsToExit();
+			}
+		}
+	}
+
+	/*
+	 * Adders for each type of agent
+	 */
+	public void add(Doctor doctor) {
+		this.doctors.add(doctor);
+	}
+
+	public void add(Patient patient) {
+		this.patients.add(patient);
+	}
+
+	public void add(Door door) {
+		this.doors.add(door);
+	}
+
+	/**
+	 * Remove agents that left the grid, having died or exited
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (to == null) {
+			doctors.remove(agent);
+			patients.remove(agent);
+		}
+	}
+}
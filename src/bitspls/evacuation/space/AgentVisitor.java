@@ -0,0 +1,17 @@
+package bitspls.evacuation.space;
+
+/**
+ * Callback for agents found by a GridQuery
+ * @author Bits Please
+ * @param <T> Type of agent being visited
+ */
+public interface AgentVisitor<T> {
+	/**
+	 * Visit an agent found in the neighborhood
+	 * @param agent The agent
+	 * @param x X-coordinate of the agent's cell
+	 * @param y Y-coordinate of the agent's cell
+	 * @return True to keep visiting, false to stop the query early
+	 */
+	boolean visit(T agent, int x, int y);
+}
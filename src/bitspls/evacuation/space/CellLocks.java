@@ -0,0 +1,59 @@
+package bitspls.evacuation.space;
+
+/**
+ * Class to hold a fixed set of locks shared out over the cells of the floor
+ * Each cell maps to one stripe, so threads working in different parts of
+ * the floor rarely wait on each other, while the number of locks stays
+ * small whatever the size of the floor
+ *
+ * Code that holds two stripes at once takes them through first and second,
+ * always the lower stripe first, so that it cannot deadlock
+ * @author Bits Please
+ */
+public final class CellLocks {
+	private final Object[] stripes;
+
+	/**
+	 * Constructor for a set of lock stripes
+	 * @param count Number of stripes
+	 */
+	public CellLocks(int count) {
+		this.stripes = new Object[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new Object();
+		}
+	}
+
+	/**
+	 * Get the lock guarding a cell
+	 * @param cell Index of the cell
+	 * @return Lock object to synchronize on
+	 */
+	public Object forCell(int cell) {
+		return stripes[stripe(cell)];
+	}
+
+	/**
+	 * Get the first of the two locks to take when working on two cells
+	 * @param a Index of one cell
+	 * @param b Index of the other cell
+	 * @return Lock of the lower stripe
+	 */
+	public Object first(int a, int b) {
+		return stripes[Math.min(stripe(a), stripe(b))];
+	}
+
+	/**
+	 * Get the second of the two locks to take when working on two cells
+	 * @param a Index of one cell
+	 * @param b Index of the other cell
+	 * @return Lock of the higher stripe, the same as first if both cells share a stripe
+	 */
+	public Object second(int a, int b) {
+		return stripes[Math.max(stripe(a), stripe(b))];
+	}
+
+	private int stripe(int cell) {
+		return cell % stripes.length;
+	}
+}
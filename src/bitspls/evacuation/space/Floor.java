@@ -0,0 +1,207 @@
+package bitspls.evacuation.space;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bitspls.evacuation.agents.AgentStore;
+import bitspls.evacuation.agents.Human;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to represent the grid cells of the hospital floor
+ * Takes the place of a Repast Grid alongside the continuous space: the
+ * cell of a moving agent is derived from the continuous location kept in
+ * the agent store, and the agents in a cell are found through the store's
+ * per-cell buckets, so a move writes a location once instead of to two
+ * projections
+ *
+ * Objects that never move on their own (doors, bodies) are not in the
+ * store and are kept in a small per-cell list instead
+ *
+ * Every cell is read and written under its lock stripe from the agent
+ * store, so moves, cell visits and neighborhood queries can run from
+ * several threads at once; a neighborhood query locks one cell at a time,
+ * so it sees each cell consistently but not the whole neighborhood at a
+ * single instant. Visitors run while their cell is locked and must not
+ * move agents or place objects
+ * @author Bits Please
+ */
+public class Floor {
+	private final AgentStore agents;
+	private final int width;
+	private final int height;
+	private final CellLocks locks;
+	private final GridPoint[] points;		// shared per cell, so locating an agent allocates nothing
+	private final Map<Object, GridPoint> fixedLocations;
+	private final List<List<Object>> fixedObjects;
+
+	/**
+	 * Constructor for the floor
+	 * @param agents Store holding the location of every human agent
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public Floor(AgentStore agents, int width, int height) {
+		this.agents = agents;
+		this.width = width;
+		this.height = height;
+		this.locks = agents.getLocks();
+		this.points = new GridPoint[width * height];
+		this.fixedLocations = new ConcurrentHashMap<Object, GridPoint>();
+		this.fixedObjects = new ArrayList<List<Object>>(width * height);
+		for (int i = 0; i < width * height; i++) {
+			points[i] = new GridPoint(i % width, i / width);
+			fixedObjects.add(null);
+		}
+	}
+
+	/**
+	 * Place an object at a continuous location
+	 * Human agents have their location recorded in the agent store, anything
+	 * else is fixed to the cell the location falls in
+	 * @param obj Object to place
+	 * @param x X-coordinate of the object
+	 * @param y Y-coordinate of the object
+	 */
+	public void place(Object obj, double x, double y) {
+		int id = agentId(obj);
+		if (id != AgentStore.NONE) {
+			agents.moveTo(id, x, y);
+		} else {
+			moveTo(obj, (int) x, (int) y);
+		}
+	}
+
+	/**
+	 * Fix an object that is not in the agent store to a cell
+	 * @param obj Object to place
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 */
+	public void moveTo(Object obj, int x, int y) {
+		GridPoint old = fixedLocations.get(obj);
+		if (old != null) {
+			int oldCell = index(old.getX(), old.getY());
+			synchronized (locks.forCell(oldCell)) {
+				fixedObjects.get(oldCell).remove(obj);
+			}
+		}
+
+		int cell = index(x, y);
+		synchronized (locks.forCell(cell)) {
+			List<Object> objects = fixedObjects.get(cell);
+			if (objects == null) {
+				objects = new ArrayList<Object>(1);
+				fixedObjects.set(cell, objects);
+			}
+			objects.add(obj);
+		}
+		fixedLocations.put(obj, points[cell]);
+	}
+
+	/**
+	 * Get the cell an object is in
+	 * @param obj Object to locate
+	 * @return GridPoint of the cell, or null if the object is not on the floor
+	 */
+	public GridPoint getLocation(Object obj) {
+		int id = agentId(obj);
+		if (id == AgentStore.NONE) {
+			return fixedLocations.get(obj);
+		}
+
+		int cell = agents.getCell(id);
+		return cell == AgentStore.NONE ? null : points[cell];
+	}
+
+	/**
+	 * Visit every object of a type in a cell
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @param type Type of object to visit
+	 * @param visitor Callback for each object found
+	 * @return False if the visitor stopped early, true otherwise
+	 */
+	public <T> boolean forEachAt(int x, int y, Class<T> type, AgentVisitor<? super T> visitor) {
+		int cell = index(x, y);
+		synchronized (locks.forCell(cell)) {
+			List<Object> objects = fixedObjects.get(cell);
+			if (objects != null) {
+				for (int i = 0; i < objects.size(); i++) {
+					Object obj = objects.get(i);
+					if (type.isInstance(obj) && !visitor.visit(type.cast(obj), x, y)) {
+						return false;
+					}
+				}
+			}
+
+			for (int id = agents.firstInCell(cell); id != AgentStore.NONE; id = agents.nextInCell(id)) {
+				Object obj = agents.get(id);
+				if (type.isInstance(obj) && !visitor.visit(type.cast(obj), x, y)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if a cell contains an object of a type
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @param type Type of object to look for
+	 * @return Whether at least one object of the type is in the cell
+	 */
+	public boolean contains(int x, int y, Class<?> type) {
+		return !forEachAt(x, y, type, (obj, cx, cy) -> false);
+	}
+
+	/**
+	 * Collect every object in a cell
+	 * @param x X-coordinate of the cell
+	 * @param y Y-coordinate of the cell
+	 * @return New list of the objects in the cell
+	 */
+	public List<Object> getObjectsAt(int x, int y) {
+		List<Object> objects = new ArrayList<Object>();
+		forEachAt(x, y, Object.class, (obj, cx, cy) -> objects.add(obj));
+		return objects;
+	}
+
+	/**
+	 * Find the straight-line distance between two cells
+	 * @param a First cell
+	 * @param b Second cell
+	 * @return Euclidean distance between the cells
+	 */
+	public double getDistance(GridPoint a, GridPoint b) {
+		int dx = a.getX() - b.getX();
+		int dy = a.getY() - b.getY();
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private int agentId(Object obj) {
+		return obj instanceof Human ? ((Human) obj).getAgentId() : AgentStore.NONE;
+	}
+
+	private int index(int x, int y) {
+		return y * width + x;
+	}
+
+	/*
+	 * Getters
+	 */
+	public AgentStore getAgents() {
+		return this.agents;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+}
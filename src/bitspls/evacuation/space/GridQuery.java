@@ -0,0 +1,74 @@
+package bitspls.evacuation.space;
+
+import java.util.List;
+
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Neighborhood queries over the floor that walk precomputed offset tables
+ * instead of building a list of GridCells, so repeated queries allocate
+ * (close to) nothing
+ *
+ * Cells are visited in the same order as GridCellNgh, and visitors can stop
+ * the query early
+ * @author Bits Please
+ */
+public final class GridQuery {
+	private GridQuery() {
+	}
+
+	/**
+	 * Visit every agent of a type in the square neighborhood around a point
+	 * @param floor Floor to search
+	 * @param center Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param type Type of agent to visit
+	 * @param visitor Callback for each agent found
+	 * @return False if the visitor stopped the query early, true otherwise
+	 */
+	public static <T> boolean forEach(Floor floor, GridPoint center, int radius, Class<T> type,
+			AgentVisitor<? super T> visitor) {
+		NeighborhoodOffsets offsets = NeighborhoodOffsets.forRadius(radius);
+		int width = floor.getWidth();
+		int height = floor.getHeight();
+		for (int k = 0; k < offsets.size(); k++) {
+			int x = center.getX() + offsets.dx(k);
+			int y = center.getY() + offsets.dy(k);
+			if (x < 0 || x >= width || y < 0 || y >= height) {
+				continue;
+			}
+
+			if (!floor.forEachAt(x, y, type, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if there is any agent of a type in the square neighborhood around a point
+	 * @param floor Floor to search
+	 * @param center Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param type Type of agent to look for
+	 * @return Whether at least one agent of the type is present
+	 */
+	public static <T> boolean any(Floor floor, GridPoint center, int radius, Class<T> type) {
+		return !forEach(floor, center, radius, type, (agent, x, y) -> false);
+	}
+
+	/**
+	 * Add every agent of a type in the square neighborhood around a point to a list
+	 * @param floor Floor to search
+	 * @param center Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param type Type of agent to collect
+	 * @param results List to add the agents to
+	 * @return The results list
+	 */
+	public static <T> List<T> collect(Floor floor, GridPoint center, int radius, Class<T> type,
+			List<T> results) {
+		forEach(floor, center, radius, type, (agent, x, y) -> results.add(agent));
+		return results;
+	}
+}
@@ -0,0 +1,18 @@
+package bitspls.evacuation.space;
+
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Interface for anything that needs to react to agents changing grid cells,
+ * including agents entering or leaving the hospital
+ * @author Bits Please
+ */
+public interface MoveListener {
+	/**
+	 * Called after an agent changes cells
+	 * @param agent The agent that moved
+	 * @param from Previous cell, or null if the agent was just added
+	 * @param to New cell, or null if the agent was removed
+	 */
+	void agentMoved(Object agent, GridPoint from, GridPoint to);
+}
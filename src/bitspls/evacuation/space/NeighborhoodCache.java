@@ -0,0 +1,209 @@
+package bitspls.evacuation.space;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to memoize neighborhood queries within a single tick
+ * Results are keyed by (cell, agent type, radius) and are dropped when the
+ * tick advances or when an agent of the queried type enters, leaves or moves
+ * within the area the query covers
+ *
+ * Changes are tracked per coarse tile and per queried type: every change
+ * stamps its tile for each type the agent is an instance of, and a cached
+ * result is only valid while it is newer than every tile it overlaps, so
+ * crowds moving around a door do not drop the door's cached lookups
+ *
+ * Queries take no lock, so patients stepping on several threads do not
+ * queue on the cache: while they step every move is deferred, nothing is
+ * stamped, and two threads missing the same query just store the same result
+ * @author Bits Please
+ */
+public class NeighborhoodCache implements MoveListener {
+	private static final int TILE_SIZE = 16;
+
+	private final Floor floor;
+	private final int tilesX;
+	private final int tilesY;
+	private final Map<Long, Entry> entries;
+	private final Map<Class<?>, Integer> typeIds;
+	private volatile Class<?>[] types;		// by type id
+	private volatile long[][] tileStamps;	// per type id, per tile
+	private long stamp;
+	private volatile double tick;
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	/**
+	 * Constructor for the neighborhood cache
+	 * @param floor Floor the queries are made against
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public NeighborhoodCache(Floor floor, int width, int height) {
+		this.floor = floor;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.entries = new ConcurrentHashMap<Long, Entry>();
+		this.typeIds = new ConcurrentHashMap<Class<?>, Integer>();
+		this.types = new Class<?>[0];
+		this.tileStamps = new long[0][];
+		this.stamp = 0;
+		this.tick = -1;
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+	}
+
+	/**
+	 * Find every agent of a type in the square neighborhood around a point,
+	 * in GridCellNgh order
+	 * The returned list is shared with other callers and must not be modified
+	 * @param center Center of the neighborhood
+	 * @param radius Extent of the neighborhood in each direction
+	 * @param type Type of agent to find
+	 * @return List of the agents found
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> query(GridPoint center, int radius, Class<T> type) {
+		double now = RunEnvironment.getInstance().getCurrentSchedule().getTickCount();
+		if (now != tick) {
+			startTick(now);
+		}
+
+		int typeId = typeId(type);
+		Long key = key(center, radius, typeId);
+		Entry entry = entries.get(key);
+		if (entry != null && isValid(entry, center, radius, tileStamps[typeId])) {
+			hits.incrementAndGet();
+			return (List<T>) entry.agents;
+		}
+
+		misses.incrementAndGet();
+		List<T> agents = GridQuery.collect(floor, center, radius, type, new ArrayList<T>());
+		// Any later change stamps its tiles past the current stamp
+		entries.put(key, new Entry(agents, stamp));
+		return agents;
+	}
+
+	/**
+	 * Drop the previous tick's results, once, when the first query of a tick arrives
+	 * @param now Current tick
+	 */
+	private synchronized void startTick(double now) {
+		if (now != tick) {
+			entries.clear();
+			tick = now;
+		}
+	}
+
+	/**
+	 * Stamp the tiles an agent left and entered, for every queried type the
+	 * agent is an instance of, so overlapping results of those types are dropped
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		for (int typeId = 0; typeId < types.length; typeId++) {
+			if (!types[typeId].isInstance(agent)) {
+				continue;
+			}
+			long[] stamps = tileStamps[typeId];
+			if (from != null) {
+				stamps[tile(from.getX(), from.getY())] = ++stamp;
+			}
+			if (to != null) {
+				stamps[tile(to.getX(), to.getY())] = ++stamp;
+			}
+		}
+	}
+
+	/**
+	 * Check that no tile overlapping a query's area changed after it was cached
+	 * @param entry Cached result
+	 * @param center Center of the query
+	 * @param radius Radius of the query
+	 * @param stamps Tile stamps of the queried type
+	 * @return Whether the cached result can still be used
+	 */
+	private boolean isValid(Entry entry, GridPoint center, int radius, long[] stamps) {
+		int minTileX = Math.max(0, (center.getX() - radius) / TILE_SIZE);
+		int maxTileX = Math.min(tilesX - 1, (center.getX() + radius) / TILE_SIZE);
+		int minTileY = Math.max(0, (center.getY() - radius) / TILE_SIZE);
+		int maxTileY = Math.min(tilesY - 1, (center.getY() + radius) / TILE_SIZE);
+		for (int ty = minTileY; ty <= maxTileY; ty++) {
+			for (int tx = minTileX; tx <= maxTileX; tx++) {
+				if (stamps[ty * tilesX + tx] > entry.stamp) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int tile(int x, int y) {
+		int tx = Math.min(tilesX - 1, Math.max(0, x / TILE_SIZE));
+		int ty = Math.min(tilesY - 1, Math.max(0, y / TILE_SIZE));
+		return ty * tilesX + tx;
+	}
+
+	private int typeId(Class<?> type) {
+		Integer typeId = typeIds.get(type);
+		return typeId != null ? typeId : addType(type);
+	}
+
+	/**
+	 * Give a newly queried type an id and its own tile stamps
+	 * The arrays are copied so lock-free readers never see them half grown
+	 * @param type Type of agent queried
+	 * @return Id of the type
+	 */
+	private synchronized int addType(Class<?> type) {
+		Integer typeId = typeIds.get(type);
+		if (typeId != null) {
+			return typeId;
+		}
+		int id = types.length;
+		Class<?>[] grownTypes = Arrays.copyOf(types, id + 1);
+		grownTypes[id] = type;
+		long[][] grownStamps = Arrays.copyOf(tileStamps, id + 1);
+		grownStamps[id] = new long[tilesX * tilesY];
+		tileStamps = grownStamps;
+		types = grownTypes;
+		typeIds.put(type, id);
+		return id;
+	}
+
+	private Long key(GridPoint center, int radius, int typeId) {
+		return ((long) typeId << 48) | ((long) radius << 40) | ((long) center.getX() << 20) | center.getY();
+	}
+
+	/*
+	 * Counters to check how often queries are served from the cache
+	 */
+	public long getHits() {
+		return this.hits.get();
+	}
+
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * Class to represent a cached query result
+	 */
+	private static class Entry {
+		private final List<?> agents;
+		private final long stamp;
+
+		private Entry(List<?> agents, long stamp) {
+			this.agents = agents;
+			this.stamp = stamp;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package bitspls.evacuation.space;
+
+/**
+ * Class to represent the precomputed cell offsets of a square (Moore)
+ * neighborhood of a given radius, including the center cell
+ * Offsets are ordered column by column, the same order GridCellNgh uses
+ * @author Bits Please
+ */
+final class NeighborhoodOffsets {
+	private static NeighborhoodOffsets[] cache = new NeighborhoodOffsets[16];
+
+	private final int[] dx;
+	private final int[] dy;
+
+	private NeighborhoodOffsets(int radius) {
+		int side = 2 * radius + 1;
+		this.dx = new int[side * side];
+		this.dy = new int[side * side];
+
+		int i = 0;
+		for (int x = -radius; x <= radius; x++) {
+			for (int y = -radius; y <= radius; y++) {
+				dx[i] = x;
+				dy[i] = y;
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Get the offsets for a radius, computing them the first time the radius is used
+	 * @param radius Extent of the neighborhood in each direction
+	 * @return Offsets for the neighborhood
+	 */
+	static NeighborhoodOffsets forRadius(int radius) {
+		if (radius >= cache.length) {
+			NeighborhoodOffsets[] grown = new NeighborhoodOffsets[radius + 1];
+			System.arraycopy(cache, 0, grown, 0, cache.length);
+			cache = grown;
+		}
+		if (cache[radius] == null) {
+			cache[radius] = new NeighborhoodOffsets(radius);
+		}
+		return cache[radius];
+	}
+
+	int size() {
+		return dx.length;
+	}
+
+	int dx(int i) {
+		return dx[i];
+	}
+
+	int dy(int i) {
+		return dy[i];
+	}
+}
@@ -0,0 +1,241 @@
+package bitspls.evacuation.space;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Class to count the agents of each type in the hospital, kept up to date
+ * from agent moves rather than by scanning the grid
+ *
+ * Counts are kept for the whole hospital, for every coarse tile of the grid
+ * and for every zone (a square around a point, such as the area near a door).
+ * Zones count the cells that hold at least one agent of a type, which is what
+ * the overcrowding checks compare against
+ * @author Bits Please
+ */
+public class ZoneOccupancy implements MoveListener {
+	public static final int TILE_SIZE = 16;
+
+	private final int width;
+	private final int height;
+	private final int tilesX;
+	private final int tilesY;
+	private final Map<Class<?>, Integer> typeIds;
+	private final List<int[]> cellCounts;	// agents per cell, per type
+	private final List<int[]> tileCounts;	// agents per tile, per type
+	private final List<int[]> zoneCounts;	// occupied cells per zone, per type
+	private int[] totals;					// agents per type
+
+	// Zones covering each cell, stored as one run of zone ids per cell
+	private final List<GridPoint> zoneCenters;
+	private final List<Integer> zoneRadii;
+	private int[] zoneStart;
+	private int[] zoneIds;
+	private boolean zonesChanged;
+
+	/**
+	 * Constructor for empty occupancy counts
+	 * @param width Width of the grid
+	 * @param height Height of the grid
+	 */
+	public ZoneOccupancy(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+		this.typeIds = new HashMap<Class<?>, Integer>();
+		this.cellCounts = new ArrayList<int[]>();
+		this.tileCounts = new ArrayList<int[]>();
+		this.zoneCounts = new ArrayList<int[]>();
+		this.totals = new int[0];
+		this.zoneCenters = new ArrayList<GridPoint>();
+		this.zoneRadii = new ArrayList<Integer>();
+		this.zoneStart = new int[width * height + 1];
+		this.zoneIds = new int[0];
+		this.zonesChanged = false;
+	}
+
+	/**
+	 * Add a zone to count occupied cells within
+	 * The zone is counted from the current occupancy the next time it is used
+	 * @param center Center of the zone
+	 * @param radius Extent of the zone in each direction
+	 * @return Id of the zone, in the order zones are added
+	 */
+	public int addZone(GridPoint center, int radius) {
+		zoneCenters.add(center);
+		zoneRadii.add(radius);
+		zonesChanged = true;
+		return zoneCenters.size() - 1;
+	}
+
+	/**
+	 * Update the counts for an agent that changed cells, entered or left
+	 */
+	@Override
+	public void agentMoved(Object agent, GridPoint from, GridPoint to) {
+		if (zonesChanged) {
+			rebuildZones();
+		}
+
+		int type = typeId(agent.getClass());
+		int[] cells = cellCounts.get(type);
+		int[] tiles = tileCounts.get(type);
+		int[] zones = zoneCounts.get(type);
+
+		if (from != null) {
+			int cell = from.getY() * width + from.getX();
+			tiles[tile(from.getX(), from.getY())]--;
+			totals[type]--;
+			if (--cells[cell] == 0) {
+				for (int i = zoneStart[cell]; i < zoneStart[cell + 1]; i++) {
+					zones[zoneIds[i]]--;
+				}
+			}
+		}
+		if (to != null) {
+			int cell = to.getY() * width + to.getX();
+			tiles[tile(to.getX(), to.getY())]++;
+			totals[type]++;
+			if (cells[cell]++ == 0) {
+				for (int i = zoneStart[cell]; i < zoneStart[cell + 1]; i++) {
+					zones[zoneIds[i]]++;
+				}
+			}
+		}
+	}
+
+	public int getZoneCount() {
+		return this.zoneCenters.size();
+	}
+
+	/**
+	 * Get the number of agents of a type in the hospital
+	 * @param type Type of agent
+	 * @return Number of agents
+	 */
+	public int getCount(Class<?> type) {
+		Integer id = typeIds.get(type);
+		return id == null ? 0 : totals[id];
+	}
+
+	/**
+	 * Get the number of agents of a type in the tile containing a point
+	 * @param pt Point in the tile
+	 * @param type Type of agent
+	 * @return Number of agents in the tile
+	 */
+	public int getTileCount(GridPoint pt, Class<?> type) {
+		Integer id = typeIds.get(type);
+		return id == null ? 0 : tileCounts.get(id)[tile(pt.getX(), pt.getY())];
+	}
+
+	/**
+	 * Get the density of agents of a type in the tile containing a point
+	 * @param pt Point in the tile
+	 * @param type Type of agent
+	 * @return Agents per cell of the tile
+	 */
+	public double getTileDensity(GridPoint pt, Class<?> type) {
+		int tx = Math.min(tilesX - 1, Math.max(0, pt.getX() / TILE_SIZE));
+		int ty = Math.min(tilesY - 1, Math.max(0, pt.getY() / TILE_SIZE));
+		int area = (Math.min(width, (tx + 1) * TILE_SIZE) - tx * TILE_SIZE)
+				* (Math.min(height, (ty + 1) * TILE_SIZE) - ty * TILE_SIZE);
+		return (double) getTileCount(pt, type) / area;
+	}
+
+	/**
+	 * Get the number of cells in a zone holding at least one agent of a type
+	 * @param zone Id of the zone
+	 * @param type Type of agent
+	 * @return Number of occupied cells
+	 */
+	public int getOccupiedCells(int zone, Class<?> type) {
+		if (zonesChanged) {
+			rebuildZones();
+		}
+		Integer id = typeIds.get(type);
+		return id == null ? 0 : zoneCounts.get(id)[zone];
+	}
+
+	/**
+	 * Rebuild the zones covering each cell and recount every zone
+	 */
+	private void rebuildZones() {
+		zonesChanged = false;
+		int[] coverage = new int[width * height];
+		for (int zone = 0; zone < zoneCenters.size(); zone++) {
+			forEachCell(zone, cell -> coverage[cell]++);
+		}
+
+		Arrays.fill(zoneStart, 0);
+		for (int cell = 0; cell < coverage.length; cell++) {
+			zoneStart[cell + 1] = zoneStart[cell] + coverage[cell];
+		}
+		zoneIds = new int[zoneStart[coverage.length]];
+		int[] next = Arrays.copyOf(zoneStart, coverage.length);
+		for (int zone = 0; zone < zoneCenters.size(); zone++) {
+			final int id = zone;
+			forEachCell(zone, cell -> zoneIds[next[cell]++] = id);
+		}
+
+		for (int type = 0; type < zoneCounts.size(); type++) {
+			int[] cells = cellCounts.get(type);
+			int[] zones = new int[zoneCenters.size()];
+			for (int zone = 0; zone < zones.length; zone++) {
+				final int id = zone;
+				forEachCell(zone, cell -> {
+					if (cells[cell] > 0) {
+						zones[id]++;
+					}
+				});
+			}
+			zoneCounts.set(type, zones);
+		}
+	}
+
+	/**
+	 * Visit every cell of a zone, clipped to the grid
+	 * @param zone Id of the zone
+	 * @param visitor Called with the index of each cell
+	 */
+	private void forEachCell(int zone, IntConsumer visitor) {
+		GridPoint center = zoneCenters.get(zone);
+		int radius = zoneRadii.get(zone);
+		for (int y = Math.max(0, center.getY() - radius); y <= Math.min(height - 1, center.getY() + radius); y++) {
+			for (int x = Math.max(0, center.getX() - radius); x <= Math.min(width - 1, center.getX() + radius); x++) {
+				visitor.accept(y * width + x);
+			}
+		}
+	}
+
+	/**
+	 * Get the id of a type of agent, allocating counters the first time it is seen
+	 * @param type Type of agent
+	 * @return Id of the type
+	 */
+	private int typeId(Class<?> type) {
+		Integer id = typeIds.get(type);
+		if (id == null) {
+			id = typeIds.size();
+			typeIds.put(type, id);
+			cellCounts.add(new int[width * height]);
+			tileCounts.add(new int[tilesX * tilesY]);
+			zoneCounts.add(new int[zoneCenters.size()]);
+			totals = Arrays.copyOf(totals, id + 1);
+		}
+		return id;
+	}
+
+	private int tile(int x, int y) {
+		int tx = Math.min(tilesX - 1, Math.max(0, x / TILE_SIZE));
+		int ty = Math.min(tilesY - 1, Math.max(0, y / TILE_SIZE));
+		return ty * tilesX + tx;
+	}
+}
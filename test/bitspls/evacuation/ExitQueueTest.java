@@ -0,0 +1,65 @@
+package bitspls.evacuation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bitspls.evacuation.agents.DeadPatient;
+import bitspls.evacuation.agents.Human;
+
+/**
+ * Tests for the exit queue, checked against a plain deque
+ * @author Bits Please
+ */
+public class ExitQueueTest {
+
+	@Test
+	public void keepsArrivalOrderAcrossWrapAndGrowth() {
+		ExitQueue queue = new ExitQueue();
+		Deque<Human> expected = new ArrayDeque<Human>();
+		Deque<Double> expectedTicks = new ArrayDeque<Double>();
+		Random random = new Random(16);
+
+		for (int tick = 0; tick < 2000; tick++) {
+			// Grow the queue for a while, then mostly drain it, wrapping the ring many times
+			int joins = random.nextInt(tick % 400 < 200 ? 5 : 2);
+			for (int i = 0; i < joins; i++) {
+				Human human = new DeadPatient();
+				queue.add(human, tick);
+				expected.addLast(human);
+				expectedTicks.addLast((double) tick);
+			}
+			int leaves = random.nextInt(4);
+			for (int i = 0; i < leaves && queue.size() > 0; i++) {
+				assertSame(expected.peekFirst(), queue.peek());
+				assertEquals(expectedTicks.peekFirst(), queue.peekJoinTick(), 0);
+				queue.remove();
+				expected.removeFirst();
+				expectedTicks.removeFirst();
+			}
+			assertEquals(expected.size(), queue.size());
+		}
+	}
+
+	@Test
+	public void growsPastTheInitialCapacity() {
+		ExitQueue queue = new ExitQueue();
+		Human[] humans = new Human[100];
+		for (int i = 0; i < humans.length; i++) {
+			humans[i] = new DeadPatient();
+			queue.add(humans[i], i);
+		}
+
+		for (int i = 0; i < humans.length; i++) {
+			assertSame(humans[i], queue.peek());
+			assertEquals(i, queue.peekJoinTick(), 0);
+			queue.remove();
+		}
+		assertEquals(0, queue.size());
+	}
+}
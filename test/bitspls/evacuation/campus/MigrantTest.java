@@ -0,0 +1,83 @@
+package bitspls.evacuation.campus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for writing migrants to and reading them from the coordinator's streams
+ * @author Bits Please
+ */
+public class MigrantTest {
+
+	@Test
+	public void readAllReturnsWhatWriteAllWrote() throws IOException {
+		List<Migrant> migrants = Arrays.asList(
+				new Migrant(true, 3, 0.42),
+				new Migrant(false, 0, 0.9),
+				new Migrant(false, 5, -0.125));
+
+		List<Migrant> read = Migrant.readAll(stream(migrants));
+
+		assertEquals(migrants.size(), read.size());
+		for (int i = 0; i < migrants.size(); i++) {
+			assertEquals(migrants.get(i).isDoctor(), read.get(i).isDoctor());
+			assertEquals(migrants.get(i).getDoor(), read.get(i).getDoor());
+			assertEquals(migrants.get(i).getTrait(), read.get(i).getTrait(), 0);
+		}
+	}
+
+	@Test
+	public void listsFollowEachOtherOnOneStream() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Migrant.writeAll(out, new ArrayList<Migrant>());
+		Migrant.writeAll(out, Arrays.asList(new Migrant(true, 1, 0.5)));
+		out.writeByte(CampusProtocol.END);
+		out.flush();
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(0, Migrant.readAll(in).size());
+		assertEquals(1, Migrant.readAll(in).size());
+		assertEquals(CampusProtocol.END, in.readByte());
+	}
+
+	@Test
+	public void routingKeepsTheHumanAndChangesTheDoor() {
+		Migrant migrant = new Migrant(false, 2, 0.75).routedTo(4);
+
+		assertFalse(migrant.isDoctor());
+		assertEquals(4, migrant.getDoor());
+		assertEquals(0.75, migrant.getTrait(), 0);
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedListFails() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Migrant.writeAll(out, Arrays.asList(new Migrant(true, 1, 0.5), new Migrant(false, 2, 0.5)));
+		out.flush();
+		byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+
+		Migrant.readAll(new DataInputStream(new ByteArrayInputStream(truncated)));
+	}
+
+	private static DataInputStream stream(List<Migrant> migrants) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Migrant.writeAll(out, migrants);
+		out.flush();
+		return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,60 @@
+package bitspls.evacuation.fields;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the box filter, checked against summing each window directly
+ * @author Bits Please
+ */
+public class BoxFilterTest {
+	private static final double EPSILON = 1e-9;
+
+	@Test
+	public void sumsMatchDirectSums() {
+		Random random = new Random(9);
+		int[][] sizes = { { 1, 1 }, { 7, 1 }, { 1, 7 }, { 13, 9 }, { 40, 25 } };
+		for (int[] size : sizes) {
+			int width = size[0];
+			int height = size[1];
+			double[] src = new double[width * height];
+			for (int i = 0; i < src.length; i++) {
+				src[i] = random.nextDouble();
+			}
+
+			for (int radius = 0; radius <= 6; radius++) {
+				double[] dst = new double[src.length];
+				BoxFilter.sum(src, new double[src.length], dst, width, height, radius);
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						assertEquals(directSum(src, width, height, x, y, radius), dst[y * width + x], EPSILON);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void windowWiderThanTheGridSumsEverything() {
+		double[] src = { 1, 2, 3, 4, 5, 6 };
+		double[] dst = new double[src.length];
+		BoxFilter.sum(src, new double[src.length], dst, 3, 2, 10);
+
+		for (double sum : dst) {
+			assertEquals(21, sum, EPSILON);
+		}
+	}
+
+	private static double directSum(double[] src, int width, int height, int cx, int cy, int radius) {
+		double sum = 0;
+		for (int y = Math.max(0, cy - radius); y <= Math.min(height - 1, cy + radius); y++) {
+			for (int x = Math.max(0, cx - radius); x <= Math.min(width - 1, cx + radius); x++) {
+				sum += src[y * width + x];
+			}
+		}
+		return sum;
+	}
+}
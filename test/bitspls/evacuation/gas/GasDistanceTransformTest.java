@@ -0,0 +1,86 @@
+package bitspls.evacuation.gas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the gas distance transform, checked against searching every
+ * gas cell directly
+ * @author Bits Please
+ */
+public class GasDistanceTransformTest {
+	private static final int WIDTH = 40;
+	private static final int HEIGHT = 30;
+
+	@Test
+	public void noGasHasNoNearestCell() {
+		GasDistanceTransform transform = new GasDistanceTransform(WIDTH, HEIGHT);
+		transform.build(new byte[WIDTH * HEIGHT]);
+
+		assertEquals(-1, transform.nearestGas(5, 5));
+		assertEquals(Integer.MAX_VALUE, transform.distanceSq(5, 5));
+	}
+
+	@Test
+	public void singleCellIsExact() {
+		byte[] cells = new byte[WIDTH * HEIGHT];
+		cells[12 * WIDTH + 17] = 1;
+		GasDistanceTransform transform = new GasDistanceTransform(WIDTH, HEIGHT);
+		transform.build(cells);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(12 * WIDTH + 17, transform.nearestGas(x, y));
+				assertEquals((x - 17) * (x - 17) + (y - 12) * (y - 12), transform.distanceSq(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void nearestCellIsGasAndCloseToExact() {
+		Random random = new Random(5);
+		for (int trial = 0; trial < 20; trial++) {
+			byte[] cells = new byte[WIDTH * HEIGHT];
+			int gas = 1 + random.nextInt(30);
+			for (int i = 0; i < gas; i++) {
+				cells[random.nextInt(cells.length)] = 1;
+			}
+			GasDistanceTransform transform = new GasDistanceTransform(WIDTH, HEIGHT);
+			transform.build(cells);
+
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					int nearest = transform.nearestGas(x, y);
+					assertEquals(1, cells[nearest]);
+					int dx = nearest % WIDTH - x;
+					int dy = nearest / WIDTH - y;
+					assertEquals(dx * dx + dy * dy, transform.distanceSq(x, y));
+
+					// Propagating between neighbors is not exactly Euclidean, but stays within a cell
+					double exact = Math.sqrt(exactDistanceSq(cells, x, y));
+					double found = Math.sqrt(transform.distanceSq(x, y));
+					assertTrue(found - exact < 1);
+					if (cells[y * WIDTH + x] != 0) {
+						assertEquals(0, transform.distanceSq(x, y));
+					}
+				}
+			}
+		}
+	}
+
+	private static int exactDistanceSq(byte[] cells, int x, int y) {
+		int best = Integer.MAX_VALUE;
+		for (int i = 0; i < cells.length; i++) {
+			if (cells[i] != 0) {
+				int dx = i % WIDTH - x;
+				int dy = i / WIDTH - y;
+				best = Math.min(best, dx * dx + dy * dy);
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,68 @@
+package bitspls.evacuation.gas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import bitspls.evacuation.agents.AgentStore;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Tests for finding the gas in the way of a human, read from the gas
+ * field's distance transform
+ * @author Bits Please
+ */
+public class GasFieldTest {
+	private static final int WIDTH = 30;
+	private static final int HEIGHT = 20;
+	private static final int RADIUS = 3;
+	private static final GridPoint FROM = new GridPoint(10, 10);
+
+	@Test
+	public void clearNeighborhoodHasNoGasAhead() {
+		GasField gas = field();
+		gas.addGas(20, 10);
+
+		assertNull(gas.findNearestGasAhead(FROM, RADIUS, 0));
+	}
+
+	@Test
+	public void gasOnTheCellIsInTheWay() {
+		GasField gas = field();
+		gas.addGas(10, 10);
+
+		assertEquals(FROM, gas.findNearestGasAhead(FROM, RADIUS, Math.PI / 3));
+	}
+
+	@Test
+	public void gasBehindIsNotInTheWay() {
+		GasField gas = field();
+		gas.addGas(8, 10);
+
+		assertNull(gas.findNearestGasAhead(FROM, RADIUS, 0));
+		assertEquals(new GridPoint(8, 10), gas.findNearestGasAhead(FROM, RADIUS, Math.PI));
+	}
+
+	@Test
+	public void gasAlongThePathIsFoundPastCloserGasBehind() {
+		GasField gas = field();
+		gas.addGas(9, 10);
+		gas.addGas(13, 11);
+
+		assertEquals(new GridPoint(13, 11), gas.findNearestGasAhead(FROM, RADIUS, 0));
+	}
+
+	@Test
+	public void gasToTheSideAheadIsInTheWay() {
+		GasField gas = field();
+		gas.addGas(11, 13);
+
+		assertEquals(new GridPoint(11, 13), gas.findNearestGasAhead(FROM, RADIUS, Math.PI / 4));
+	}
+
+	private static GasField field() {
+		return new GasField(new Floor(new AgentStore(WIDTH, HEIGHT, 16), WIDTH, HEIGHT), WIDTH, HEIGHT);
+	}
+}
@@ -0,0 +1,85 @@
+package bitspls.evacuation.gas;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the summed-area table, checked against counting the cells directly
+ * @author Bits Please
+ */
+public class SummedAreaTableTest {
+	private static final int WIDTH = 23;
+	private static final int HEIGHT = 17;
+
+	@Test
+	public void countsMatchDirectCount() {
+		byte[] cells = randomCells(new Random(4), 0.3);
+		SummedAreaTable table = new SummedAreaTable(WIDTH, HEIGHT);
+		table.build(cells);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				for (int radius = 0; radius <= 6; radius++) {
+					assertEquals(count(cells, x - radius, y - radius, x + radius, y + radius), table.countInRadius(x, y, radius));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void rectanglesAreClippedToTheGrid() {
+		byte[] cells = new byte[WIDTH * HEIGHT];
+		Arrays.fill(cells, (byte) 1);
+		SummedAreaTable table = new SummedAreaTable(WIDTH, HEIGHT);
+		table.build(cells);
+
+		assertEquals(WIDTH * HEIGHT, table.countInRectangle(-5, -5, WIDTH + 5, HEIGHT + 5));
+		assertEquals(4, table.countInRadius(0, 0, 1));
+		assertEquals(0, table.countInRectangle(WIDTH, 0, WIDTH + 3, 3));
+		assertEquals(0, table.countInRectangle(5, 5, 4, 8));
+	}
+
+	@Test
+	public void rebuildingReplacesTheOldCounts() {
+		SummedAreaTable table = new SummedAreaTable(WIDTH, HEIGHT);
+		table.build(randomCells(new Random(5), 0.8));
+		byte[] cells = randomCells(new Random(6), 0.1);
+		table.build(cells);
+
+		assertEquals(count(cells, 0, 0, WIDTH - 1, HEIGHT - 1), table.countInRectangle(0, 0, WIDTH - 1, HEIGHT - 1));
+		assertEquals(count(cells, 3, 2, 9, 11), table.countInRectangle(3, 2, 9, 11));
+	}
+
+	@Test
+	public void areaIsClippedToTheGrid() {
+		SummedAreaTable table = new SummedAreaTable(WIDTH, HEIGHT);
+
+		assertEquals(25, table.areaInRadius(10, 10, 2));
+		assertEquals(9, table.areaInRadius(0, 0, 2));
+		assertEquals(6, table.areaInRadius(WIDTH - 1, 5, 1));
+	}
+
+	private static byte[] randomCells(Random random, double density) {
+		byte[] cells = new byte[WIDTH * HEIGHT];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = (byte) (random.nextDouble() < density ? 1 : 0);
+		}
+		return cells;
+	}
+
+	private static int count(byte[] cells, int minX, int minY, int maxX, int maxY) {
+		int count = 0;
+		for (int y = Math.max(0, minY); y <= Math.min(HEIGHT - 1, maxY); y++) {
+			for (int x = Math.max(0, minX); x <= Math.min(WIDTH - 1, maxX); x++) {
+				if (cells[y * WIDTH + x] != 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,89 @@
+package bitspls.evacuation.navigation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Tests for the door index, checked against sorting every door by distance
+ * @author Bits Please
+ */
+public class DoorIndexTest {
+	private static final int WIDTH = 200;
+	private static final int HEIGHT = 150;
+
+	@Test
+	public void nearestMatchesSortingEveryDoor() {
+		Random random = new Random(17);
+		for (int trial = 0; trial < 20; trial++) {
+			int doors = 1 + random.nextInt(40);
+			int[][] locations = new int[doors][];
+			DoorIndex index = new DoorIndex(WIDTH, HEIGHT);
+			for (int i = 0; i < doors; i++) {
+				locations[i] = new int[] { random.nextInt(WIDTH), random.nextInt(HEIGHT) };
+				index.addDoor(new GridPoint(locations[i][0], locations[i][1]));
+			}
+			assertEquals(doors, index.getDoorCount());
+
+			final int modulus = 1 + random.nextInt(3);
+			IntPredicate filter = door -> door % modulus == 0;
+			for (int query = 0; query < 200; query++) {
+				GridPoint pt = new GridPoint(random.nextInt(WIDTH), random.nextInt(HEIGHT));
+				int k = 1 + random.nextInt(6);
+				int[] expected = closest(locations, pt, k, filter);
+
+				int[] result = new int[k];
+				int found = index.nearest(pt, k, filter, result);
+				assertArrayEquals(expected, Arrays.copyOf(result, found));
+				assertEquals(expected.length == 0 ? -1 : expected[0], index.nearest(pt, filter));
+			}
+		}
+	}
+
+	@Test
+	public void tiesGoToTheLowestId() {
+		DoorIndex index = new DoorIndex(WIDTH, HEIGHT);
+		index.addDoor(new GridPoint(60, 40));
+		index.addDoor(new GridPoint(40, 40));
+		index.addDoor(new GridPoint(50, 30));
+
+		assertEquals(0, index.nearest(new GridPoint(50, 40), door -> true));
+		assertEquals(1, index.nearest(new GridPoint(50, 40), door -> door != 0));
+		assertEquals(-1, index.nearest(new GridPoint(50, 40), door -> false));
+	}
+
+	@Test
+	public void findsDoorsFarOutsideThePointsBucket() {
+		DoorIndex index = new DoorIndex(WIDTH, HEIGHT);
+		index.addDoor(new GridPoint(199, 149));
+
+		int[] result = new int[3];
+		assertEquals(1, index.nearest(new GridPoint(0, 0), 3, door -> true, result));
+		assertEquals(0, result[0]);
+	}
+
+	private static int[] closest(int[][] locations, GridPoint pt, int k, IntPredicate filter) {
+		Integer[] ids = new Integer[locations.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = i;
+		}
+		Arrays.sort(ids, (a, b) -> {
+			int byDistance = Long.compare(distanceSq(locations[a], pt), distanceSq(locations[b], pt));
+			return byDistance != 0 ? byDistance : Integer.compare(a, b);
+		});
+		return Arrays.stream(ids).mapToInt(Integer::intValue).filter(filter).limit(k).toArray();
+	}
+
+	private static long distanceSq(int[] location, GridPoint pt) {
+		long dx = location[0] - pt.getX();
+		long dy = location[1] - pt.getY();
+		return dx * dx + dy * dy;
+	}
+}
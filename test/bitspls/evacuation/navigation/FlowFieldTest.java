@@ -0,0 +1,96 @@
+package bitspls.evacuation.navigation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import bitspls.evacuation.gas.GasField;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Tests for the door flow fields, checking that a field repaired as gas
+ * spreads matches one built from scratch
+ * @author Bits Please
+ */
+public class FlowFieldTest {
+	private static final int WIDTH = 30;
+	private static final int HEIGHT = 20;
+	private static final GridPoint DOOR = new GridPoint(0, 10);
+
+	@Test
+	public void openFloorIsChebyshevDistance() {
+		GasField gas = new GasField(null, WIDTH, HEIGHT);
+		FlowField field = new FlowField(gas, WIDTH, HEIGHT, DOOR);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(Math.max(x, Math.abs(y - DOOR.getY())), field.getDistance(new GridPoint(x, y)));
+			}
+		}
+		assertNull(field.nextStep(DOOR));
+	}
+
+	@Test
+	public void repairedFieldMatchesRebuiltField() {
+		Random random = new Random(6);
+		for (int trial = 0; trial < 10; trial++) {
+			GasField gas = new GasField(null, WIDTH, HEIGHT);
+			FlowField repaired = new FlowField(gas, WIDTH, HEIGHT, DOOR);
+			gas.addListener(repaired);
+			repaired.update();
+
+			for (int round = 0; round < 8; round++) {
+				for (int i = 0; i < 12; i++) {
+					gas.addGas(1 + random.nextInt(WIDTH - 1), random.nextInt(HEIGHT));
+				}
+				// A wall with a gap forces routes around the gas
+				if (round == 3) {
+					for (int y = 0; y < HEIGHT - 2; y++) {
+						gas.addGas(WIDTH / 2, y);
+					}
+				}
+
+				FlowField rebuilt = new FlowField(gas, WIDTH, HEIGHT, DOOR);
+				assertSameField(gas, rebuilt, repaired);
+			}
+		}
+	}
+
+	@Test
+	public void gasOnTheDoorCutsEveryRoute() {
+		GasField gas = new GasField(null, WIDTH, HEIGHT);
+		FlowField field = new FlowField(gas, WIDTH, HEIGHT, DOOR);
+		gas.addListener(field);
+		field.update();
+		gas.addGas(DOOR.getX(), DOOR.getY());
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				assertEquals(Integer.MAX_VALUE, field.getDistance(new GridPoint(x, y)));
+				assertNull(field.nextStep(new GridPoint(x, y)));
+			}
+		}
+	}
+
+	private static void assertSameField(GasField gas, FlowField expected, FlowField actual) {
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				GridPoint pt = new GridPoint(x, y);
+				int distance = expected.getDistance(pt);
+				assertEquals("distance at " + pt, distance, actual.getDistance(pt));
+
+				GridPoint next = actual.nextStep(pt);
+				if (distance == Integer.MAX_VALUE || pt.equals(DOOR)) {
+					assertNull(next);
+				} else {
+					assertFalse(gas.isGas(next.getX(), next.getY()));
+					assertEquals("step from " + pt, distance - 1, actual.getDistance(next));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package bitspls.evacuation.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests for the dense agent set
+ * @author Bits Please
+ */
+public class DenseSetTest {
+
+	@Test
+	public void matchesASetThroughAddsAndRemoves() {
+		DenseSet<Object> set = new DenseSet<Object>();
+		Set<Object> expected = new HashSet<Object>();
+		List<Object> agents = new ArrayList<Object>();
+		for (int i = 0; i < 50; i++) {
+			agents.add(new Object());
+		}
+
+		Random random = new Random(19);
+		for (int i = 0; i < 5000; i++) {
+			Object agent = agents.get(random.nextInt(agents.size()));
+			if (random.nextBoolean()) {
+				set.add(agent);
+				expected.add(agent);
+			} else {
+				set.remove(agent);
+				expected.remove(agent);
+			}
+
+			assertEquals(expected.size(), set.size());
+			Set<Object> listed = new HashSet<Object>();
+			for (int j = 0; j < set.size(); j++) {
+				assertTrue(listed.add(set.get(j)));
+			}
+			assertEquals(expected, listed);
+			for (Object other : agents) {
+				assertEquals(expected.contains(other), set.contains(other));
+			}
+		}
+	}
+
+	@Test
+	public void agentsCanRemoveThemselvesWhileIteratingFromTheBack() {
+		DenseSet<Object> set = new DenseSet<Object>();
+		List<Object> agents = new ArrayList<Object>();
+		for (int i = 0; i < 20; i++) {
+			agents.add(new Object());
+			set.add(agents.get(i));
+		}
+
+		Set<Object> visited = new HashSet<Object>();
+		for (int i = set.size() - 1; i >= 0; i--) {
+			Object agent = set.get(i);
+			assertTrue(visited.add(agent));
+			if (agents.indexOf(agent) % 3 == 0) {
+				set.remove(agent);
+			}
+		}
+
+		assertEquals(new HashSet<Object>(agents), visited);
+		assertEquals(13, set.size());
+		assertFalse(set.contains(agents.get(0)));
+	}
+}
@@ -0,0 +1,170 @@
+package bitspls.evacuation.schedule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import bitspls.evacuation.Door;
+import bitspls.evacuation.Hospital;
+import bitspls.evacuation.agents.AgentStore;
+import bitspls.evacuation.agents.Patient;
+import bitspls.evacuation.gas.GasField;
+import bitspls.evacuation.space.Floor;
+import repast.simphony.context.Context;
+import repast.simphony.context.DefaultContext;
+import repast.simphony.context.space.continuous.ContinuousSpaceFactoryFinder;
+import repast.simphony.engine.environment.RunEnvironment;
+import repast.simphony.engine.environment.RunState;
+import repast.simphony.engine.schedule.Schedule;
+import repast.simphony.parameter.DefaultParameters;
+import repast.simphony.space.continuous.BouncyBorders;
+import repast.simphony.space.continuous.ContinuousSpace;
+import repast.simphony.space.continuous.SimpleCartesianAdder;
+import repast.simphony.space.grid.GridPoint;
+
+/**
+ * Tests that the synchronous execution mode gives the same run however its
+ * patients are split up: stepping them all on one thread, on several
+ * threads, or in floor bands must move and exit every patient the same way
+ *
+ * In the first runs every patient starts within sight of a door, so patients
+ * only follow the doors' flow fields; in the others patients start anywhere
+ * and wander, so their random draws must not depend on the split either
+ * @author Bits Please
+ */
+public class ParallelSchedulerTest {
+	private static final int WIDTH = 60;
+	private static final int HEIGHT = 40;
+	private static final int PATIENTS = 400;
+	private static final int TICKS = 40;
+	private static final double[][] DOOR_LOCATIONS = { { 0.1, 20 }, { 59.9, 20 }, { 30, 0.1 } };
+
+	@Test
+	public void threadsAndBandsGiveTheSameRunAsOneThread() {
+		List<int[]> serial = run(1, 0, false);
+		assertEqualRuns(serial, run(4, 0, false));
+		assertEqualRuns(serial, run(4, 5, false));
+		assertEqualRuns(serial, run(2, HEIGHT, false));
+	}
+
+	@Test
+	public void wanderingPatientsGiveTheSameRunOnAnyThreads() {
+		List<int[]> serial = run(1, 0, true);
+		assertEqualRuns(serial, run(4, 0, true));
+		assertEqualRuns(serial, run(4, 5, true));
+	}
+
+	@Test
+	public void patientsLeaveThroughTheDoors() {
+		List<int[]> ticks = run(4, 0, false);
+		int[] last = ticks.get(ticks.size() - 1);
+		int exited = 0;
+		for (int d = 0; d < DOOR_LOCATIONS.length; d++) {
+			exited += last[2 * PATIENTS + d];
+		}
+		assertTrue(exited > 0);
+	}
+
+	/**
+	 * Run the same building for a number of ticks
+	 * @param parallelism Number of threads to step patients on
+	 * @param bands Number of floor bands, or 0 to split patients by range
+	 * @param anywhere Whether patients start anywhere rather than near a door
+	 * @return For every tick, the cell of every patient (-1 once it has
+	 * left) followed by the number of humans each door let out
+	 */
+	private static List<int[]> run(int parallelism, int bands, boolean anywhere) {
+		Schedule schedule = new Schedule();
+		DefaultParameters params = new DefaultParameters();
+		params.addParameter("dist_panic", "dist_panic", String.class, "Normal", true);
+		RunEnvironment.init(schedule, null, params, true);
+		Context<Object> context = new DefaultContext<Object>();
+		RunState.init().setMasterContext(context);
+
+		ContinuousSpace<Object> space = ContinuousSpaceFactoryFinder.createContinuousSpaceFactory(null)
+				.createContinuousSpace("space", context, new SimpleCartesianAdder<Object>(),
+						new BouncyBorders(), new double[] { WIDTH, HEIGHT }, new double[] { 0, 0 });
+		Floor floor = new Floor(new AgentStore(WIDTH, HEIGHT, 16), WIDTH, HEIGHT);
+		GasField gasField = new GasField(floor, WIDTH, HEIGHT);
+		context.add(gasField);
+		Hospital hospital = new Hospital(floor, gasField);
+		context.add(hospital.getPanicField());
+		context.add(hospital.getCharismaField());
+		context.add(hospital.getKnowledgeExchange());
+		context.add(hospital.getDoorStatusBoard());
+
+		ParallelScheduler parallel = hospital.getParallel();
+		parallel.setParallelism(parallelism);
+		parallel.setBandCount(bands);
+		context.add(parallel);
+
+		List<Door> doors = new ArrayList<Door>();
+		for (double[] location : DOOR_LOCATIONS) {
+			Door door = new Door(space, floor, hospital, 5, 10, 20, 2);
+			context.add(door);
+			space.moveTo(door, location);
+			floor.place(door, location[0], location[1]);
+			hospital.addDoor(door);
+			parallel.add(door);
+			doors.add(door);
+		}
+
+		Random random = new Random(23);
+		List<Patient> patients = new ArrayList<Patient>();
+		for (int i = 0; i < PATIENTS; i++) {
+			Patient patient = new Patient(space, floor, hospital, 0.6, 0.5, 0.07, random);
+			context.add(patient);
+			double x;
+			double y;
+			if (anywhere) {
+				x = 0.5 + random.nextInt(WIDTH);
+				y = 0.5 + random.nextInt(HEIGHT);
+			} else {
+				double[] door = DOOR_LOCATIONS[random.nextInt(DOOR_LOCATIONS.length)];
+				x = Math.min(WIDTH - 0.5, Math.max(0.5, door[0] + random.nextInt(19) - 9));
+				y = Math.min(HEIGHT - 0.5, Math.max(0.5, door[1] + random.nextInt(19) - 9));
+			}
+			space.moveTo(patient, x, y);
+			floor.place(patient, x, y);
+			parallel.add(patient);
+			patients.add(patient);
+		}
+		for (Patient patient : patients) {
+			hospital.agentMoved(patient, null, floor.getLocation(patient));
+		}
+
+		for (Object obj : new ArrayList<Object>(context)) {
+			schedule.schedule(obj);
+		}
+
+		List<int[]> ticks = new ArrayList<int[]>();
+		for (int tick = 0; tick < TICKS; tick++) {
+			schedule.execute();
+
+			int[] state = new int[2 * PATIENTS + doors.size()];
+			for (int i = 0; i < PATIENTS; i++) {
+				GridPoint pt = floor.getLocation(patients.get(i));
+				state[2 * i] = pt == null ? -1 : pt.getX();
+				state[2 * i + 1] = pt == null ? -1 : pt.getY();
+			}
+			for (int d = 0; d < doors.size(); d++) {
+				state[2 * PATIENTS + d] = doors.get(d).getExitedCount();
+			}
+			ticks.add(state);
+		}
+		return ticks;
+	}
+
+	private static void assertEqualRuns(List<int[]> expected, List<int[]> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int tick = 0; tick < expected.size(); tick++) {
+			assertArrayEquals("tick " + (tick + 1), expected.get(tick), actual.get(tick));
+		}
+	}
+}